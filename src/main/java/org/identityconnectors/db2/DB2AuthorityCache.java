@@ -0,0 +1,217 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Cache of authorities read for users. Entries expire after time to live and
+ * least recently used entry is evicted when cache is full. Connector
+ * invalidates entry of user on each write to the user. <br/>
+ * Cache can be owned by one connector instance or shared by all connector
+ * instances of the same configuration, time to live and size in the JVM, see
+ * {@link #acquire(String, long, int)}. <br/>
+ * Hits and misses are logged every {@link #STATISTICS_INTERVAL} lookups, by
+ * connector test and when connector instance is disposed.
+ */
+final class DB2AuthorityCache {
+    private final static Log LOG = Log.getLog(DB2AuthorityCache.class);
+    /** Number of lookups after which statistics are logged */
+    static final int STATISTICS_INTERVAL = 10000;
+    /** Shared caches keyed by configuration */
+    private static final Map<String, DB2AuthorityCache> SHARED_CACHES =
+            new HashMap<String, DB2AuthorityCache>();
+
+    private static final class Entry {
+        final Collection<DB2Authority> authorities;
+        final long expires;
+
+        Entry(Collection<DB2Authority> authorities, long expires) {
+            this.authorities = authorities;
+            this.expires = expires;
+        }
+    }
+
+    private final String key;
+    private final long ttl;
+    private final int maxSize;
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * Counter of invalidations, reader can detect that cache was invalidated
+     * while it was reading authorities from database.
+     */
+    private long invalidations;
+    /** Number of connector instances using shared cache, guarded by SHARED_CACHES */
+    private int references;
+
+    /**
+     * @param ttl
+     *            time to live of entry in milliseconds
+     * @param maxSize
+     *            maximal number of cached users
+     */
+    DB2AuthorityCache(long ttl, int maxSize) {
+        this(null, ttl, maxSize);
+    }
+
+    private DB2AuthorityCache(String key, long ttl, int maxSize) {
+        this.key = key;
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > DB2AuthorityCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns cache shared by all connector instances using the same
+     * configuration key, time to live and size. Each call must be paired with
+     * {@link #release()}.
+     */
+    static DB2AuthorityCache acquire(String configurationKey, long ttl, int maxSize) {
+        final String key = configurationKey + '|' + ttl + '|' + maxSize;
+        synchronized (SHARED_CACHES) {
+            DB2AuthorityCache cache = SHARED_CACHES.get(key);
+            if (cache == null) {
+                cache = new DB2AuthorityCache(key, ttl, maxSize);
+                SHARED_CACHES.put(key, cache);
+            }
+            cache.references++;
+            return cache;
+        }
+    }
+
+    /**
+     * Releases shared cache, it is forgotten when last connector instance
+     * releases it. Cache owned by one connector instance is just forgotten.
+     */
+    void release() {
+        if (key == null) {
+            return;
+        }
+        synchronized (SHARED_CACHES) {
+            if (--references == 0) {
+                SHARED_CACHES.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns number of shared caches.
+     */
+    static int getSharedCount() {
+        synchronized (SHARED_CACHES) {
+            return SHARED_CACHES.size();
+        }
+    }
+
+    /**
+     * Returns cached authorities of the user or null when user is not cached
+     * or entry has expired.
+     */
+    synchronized Collection<DB2Authority> get(String user) {
+        final String key = user.toUpperCase();
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.expires > System.currentTimeMillis()) {
+            if ((hits.incrementAndGet() + misses.get()) % STATISTICS_INTERVAL == 0) {
+                logStatistics();
+            }
+            return entry.authorities;
+        }
+        if (entry != null) {
+            entries.remove(key);
+        }
+        if ((misses.incrementAndGet() + hits.get()) % STATISTICS_INTERVAL == 0) {
+            logStatistics();
+        }
+        return null;
+    }
+
+    /**
+     * Returns stamp which must be passed to {@link #putAll(Map, long)}, take
+     * it before reading authorities from database.
+     */
+    synchronized long stamp() {
+        return invalidations;
+    }
+
+    /**
+     * Caches authorities read from database. Authorities are not cached when
+     * any entry was invalidated after stamp was taken, they could be read
+     * before the write was committed.
+     */
+    synchronized void putAll(Map<String, Collection<DB2Authority>> auths, long stamp) {
+        if (stamp != invalidations) {
+            return;
+        }
+        final long expires = System.currentTimeMillis() + ttl;
+        for (Map.Entry<String, Collection<DB2Authority>> entry : auths.entrySet()) {
+            entries.put(entry.getKey().toUpperCase(), new Entry(Collections
+                    .unmodifiableList(new ArrayList<DB2Authority>(entry.getValue())), expires));
+        }
+    }
+
+    /**
+     * Removes cached authorities of the user.
+     */
+    synchronized void invalidate(String user) {
+        invalidations++;
+        entries.remove(user.toUpperCase());
+    }
+
+    /**
+     * Logs hits, misses and number of cached users.
+     */
+    void logStatistics() {
+        LOG.info("Authority cache hits : {0}, misses : {1}, size : {2}", getHits(), getMisses(),
+                size());
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
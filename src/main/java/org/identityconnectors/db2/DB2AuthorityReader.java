@@ -31,189 +31,455 @@ import static org.identityconnectors.db2.DB2Specifics.AUTH_TYPE_TABLE;
 import static org.identityconnectors.db2.DB2Specifics.AUTH_TYPE_TABLESPACE;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
-
-import javax.sql.rowset.CachedRowSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.identityconnectors.common.Assertions;
+import org.identityconnectors.dbcommon.FilterWhereBuilder;
+import org.identityconnectors.dbcommon.SQLParam;
 import org.identityconnectors.dbcommon.SQLUtil;
 
-import com.sun.rowset.CachedRowSetImpl;
-
 /**
- * Helper utilities for reading authorities.
+ * Helper utilities for reading authorities. All queries are parameterized, when
+ * reader is created with {@link DB2StatementCache} the prepared statements are
+ * reused across reads.
  *
  * @author kitko
  *
  */
 class DB2AuthorityReader {
     private Connection conn;
+    /** Cache of prepared statements, null when statements are not cached */
+    private DB2StatementCache statements;
 
-    DB2AuthorityReader(Connection adminConn) {
-        Assertions.nullCheck(adminConn, "adminConn");
-        this.conn = adminConn;
+    /** Number of authority columns in normalized layout of authority queries. */
+    private static final int AUTH_COLUMNS = 8;
+
+    /**
+     * One privilege stored in authority table, column holding the privilege
+     * and function name we use in grant.
+     */
+    private static final class Privilege {
+        final String column;
+        final String function;
+        /** Whether also 'G' (granted with grant option) means privilege is held. */
+        final boolean grantable;
+
+        Privilege(String column, String function, boolean grantable) {
+            this.column = column;
+            this.function = function;
+            this.grantable = grantable;
+        }
+
+        boolean isHeld(String value) {
+            return "Y".equals(value) || (grantable && "G".equals(value));
+        }
     }
 
     /**
-     * Returns a collection of Database type DB2Authority objects for the passed
-     * user.
+     * DB2 system tables holding authorities. All queries select rows in the
+     * same normalized layout :
+     * <code>AUTHTYPE, GRANTEE, OBJECTNAME, AUTH1 ... AUTH8</code>, so they can
+     * be mapped same way and combined using UNION ALL. Order of constants is
+     * order in which authorities are read by {@link #readAllAuthorities}.
      */
-    Collection<DB2Authority> readDatabaseAuthorities(String user) throws SQLException {
-        String accountIDUC = user.toUpperCase();
+    enum AuthorityQuery {
+        INDEX(AUTH_TYPE_INDEX, "SYSIBM.SYSINDEXAUTH A", "TRIM(CREATOR) || '.' || NAME", null,
+                new Privilege("CONTROLAUTH", "CONTROL", false)),
+        SCHEMA(AUTH_TYPE_SCHEMA, "SYSIBM.SYSSCHEMAAUTH A", "SCHEMANAME", null,
+                new Privilege("CREATEINAUTH", "CREATEIN", true),
+                new Privilege("ALTERINAUTH", "ALTERIN", true),
+                new Privilege("DROPINAUTH", "DROPIN", true)),
+        SERVER(AUTH_TYPE_SERVER, "SYSIBM.SYSPASSTHRUAUTH A", "SERVERNAME", null,
+                new Privilege("'Y'", "PASSTHRU", false)),
+        TABLE(AUTH_TYPE_TABLE, "SYSIBM.SYSTABAUTH A", "TRIM(TCREATOR) || '.' || TRIM(TTNAME)",
+                null, new Privilege("CONTROLAUTH", "CONTROL", false),
+                new Privilege("ALTERAUTH", "ALTER", true),
+                new Privilege("DELETEAUTH", "DELETE", true),
+                new Privilege("INDEXAUTH", "INDEX", true),
+                new Privilege("INSERTAUTH", "INSERT", true),
+                new Privilege("SELECTAUTH", "SELECT", true),
+                new Privilege("UPDATEAUTH", "UPDATE", true),
+                new Privilege("REFAUTH", "REFERENCES", true)),
+        TABLESPACE(AUTH_TYPE_TABLESPACE, "SYSIBM.SYSTBSPACEAUTH A, SYSIBM.SYSTABLESPACES T",
+                "T.TBSPACE", "(A.USEAUTH = 'Y' OR A.USEAUTH = 'G') AND A.TBSPACEID = T.TBSPACEID",
+                new Privilege("A.USEAUTH", "USE", true)),
+        PACKAGE(AUTH_TYPE_PACKAGE, "SYSIBM.SYSPLANAUTH A", "TRIM(CREATOR) || '.' || NAME", null,
+                new Privilege("CONTROLAUTH", "CONTROL", false),
+                new Privilege("BINDAUTH", "BIND", false),
+                new Privilege("EXECUTEAUTH", "EXECUTE", false)),
+        DATABASE(AUTH_TYPE_DATABASE, "SYSIBM.SYSDBAUTH A", "''", null,
+                new Privilege("DBADMAUTH", "DBADM", false),
+                new Privilege("CREATETABAUTH", "CREATETAB", false),
+                new Privilege("BINDADDAUTH", "BINDADD", false),
+                new Privilege("CONNECTAUTH", "CONNECT", false),
+                new Privilege("NOFENCEAUTH", "CREATE_NOT_FENCED", false),
+                new Privilege("IMPLSCHEMAAUTH", "IMPLICIT_SCHEMA", false),
+                new Privilege("LOADAUTH", "LOAD", false));
 
-        String sql =
-                "SELECT * FROM SYSIBM.SYSDBAUTH WHERE GRANTEE = '" + accountIDUC
-                        + "' AND GRANTEETYPE = 'U'";
+        final String authType;
+        final String from;
+        final String objectName;
+        final String condition;
+        final Privilege[] privileges;
+        /** Query selecting all user rows of the table in normalized layout. */
+        final String sql;
+        /** Query selecting rows of one grantee bound as parameter. */
+        final String userSQL;
 
-        Collection<DB2Authority> grants = new ArrayList<DB2Authority>();
+        AuthorityQuery(String authType, String from, String objectName, String condition,
+                Privilege... privileges) {
+            this.authType = authType;
+            this.from = from;
+            this.objectName = objectName;
+            this.condition = condition;
+            this.privileges = privileges;
+            StringBuilder builder = new StringBuilder("SELECT '");
+            builder.append(name()).append("' AS AUTHTYPE, A.GRANTEE AS GRANTEE, ");
+            builder.append(objectName).append(" AS OBJECTNAME");
+            for (int i = 0; i < AUTH_COLUMNS; i++) {
+                builder.append(", ");
+                builder.append(i < privileges.length ? privileges[i].column : "'N'");
+                builder.append(" AS AUTH").append(i + 1);
+            }
+            builder.append(" FROM ").append(from).append(" WHERE A.GRANTEETYPE = 'U'");
+            if (condition != null) {
+                builder.append(" AND ").append(condition);
+            }
+            this.sql = builder.toString();
+            this.userSQL = sql + " AND A.GRANTEE = ?";
+        }
 
-        ResultSet rs = executeQuery(sql);
-        while (rs.next()) {
-            if (rs.getString("DBADMAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_DATABASE, "DBADM", "", accountIDUC));
+        /**
+         * Maps current row of the result set into authorities of passed user.
+         */
+        void map(ResultSet rs, String user, Collection<DB2Authority> grants) throws SQLException {
+            final String objectName = rs.getString("OBJECTNAME");
+            for (int i = 0; i < privileges.length; i++) {
+                if (privileges[i].isHeld(rs.getString("AUTH" + (i + 1)))) {
+                    grants.add(new DB2Authority(authType, privileges[i].function,
+                            objectName != null ? objectName : "", user));
+                }
+            }
+        }
+
+        /**
+         * Builds EXISTS predicate testing that grantee of outer query holds
+         * the authority. Predicate has one parameter for the object name,
+         * except of database authorities.
+         */
+        String existsSQL(Privilege privilege, String outerGrantee) {
+            StringBuilder builder = new StringBuilder("EXISTS (SELECT 1 FROM ");
+            builder.append(from).append(" WHERE A.GRANTEETYPE = 'U' AND A.GRANTEE = ");
+            builder.append(outerGrantee);
+            if (condition != null) {
+                builder.append(" AND ").append(condition);
             }
-            if (rs.getString("CREATETABAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_DATABASE, "CREATETAB", "", accountIDUC));
+            builder.append(" AND ").append(privilege.column);
+            builder.append(privilege.grantable ? " IN ('Y','G')" : " = 'Y'");
+            if (this != DATABASE) {
+                builder.append(" AND ").append(objectName).append(" = ?");
             }
-            if (rs.getString("BINDADDAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_DATABASE, "BINDADD", "", accountIDUC));
+            return builder.append(')').toString();
+        }
+
+        String bulkSQL(int users) {
+            StringBuilder builder = new StringBuilder(sql);
+            builder.append(" AND A.GRANTEE IN (");
+            for (int i = 0; i < users; i++) {
+                builder.append(i == 0 ? "?" : ",?");
             }
-            if (rs.getString("CONNECTAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_DATABASE, "CONNECT", "", accountIDUC));
+            return builder.append(')').toString();
+        }
+    }
+
+    /**
+     * Reads all authorities of one user in one statement. Each authority query
+     * is restricted to one grantee bound as parameter.
+     */
+    private static final String ALL_AUTHORITIES_SQL;
+    static {
+        StringBuilder builder = new StringBuilder();
+        for (AuthorityQuery query : AuthorityQuery.values()) {
+            if (builder.length() > 0) {
+                builder.append(" UNION ALL ");
+            }
+            builder.append(query.userSQL);
+        }
+        ALL_AUTHORITIES_SQL = builder.toString();
+    }
+
+    /**
+     * Returns whether authority is privilege read from authority tables, so
+     * it can be compared with authorities user holds.
+     */
+    static boolean isKnownPrivilege(DB2Authority authority) {
+        for (AuthorityQuery query : AuthorityQuery.values()) {
+            if (!query.authType.equals(authority.authorityType)) {
+                continue;
             }
-            if (rs.getString("NOFENCEAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_DATABASE, "CREATE_NOT_FENCED", "",
-                        accountIDUC));
+            for (Privilege privilege : query.privileges) {
+                if (privilege.function.equals(authority.authorityFunction)) {
+                    return true;
+                }
             }
-            if (rs.getString("IMPLSCHEMAAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_DATABASE, "IMPLICIT_SCHEMA", "", accountIDUC));
+        }
+        return false;
+    }
+
+    /**
+     * Builds EXISTS predicate testing that user of outer query, referenced by
+     * passed grantee column, holds passed authority.
+     *
+     * @return predicate with parameters or null when authority is unknown
+     */
+    static FilterWhereBuilder buildExistsPredicate(DB2Authority authority, String outerGrantee) {
+        for (AuthorityQuery query : AuthorityQuery.values()) {
+            if (!query.authType.equals(authority.authorityType)) {
+                continue;
             }
-            if (rs.getString("LOADAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_DATABASE, "LOAD", "", accountIDUC));
+            for (Privilege privilege : query.privileges) {
+                if (privilege.function.equals(authority.authorityFunction)) {
+                    FilterWhereBuilder predicate = new FilterWhereBuilder();
+                    predicate.getWhere().append(query.existsSQL(privilege, outerGrantee));
+                    if (query != AuthorityQuery.DATABASE) {
+                        predicate.getParams().add(
+                                new SQLParam("OBJECTNAME", authority.authorityObject));
+                    }
+                    return predicate;
+                }
             }
         }
-        return grants;
+        return null;
     }
 
-    private ResultSet executeQuery(String sql) throws SQLException {
-        Statement statement = null;
+    /**
+     * Number of grantee parameters of bulk query for passed number of users.
+     * Number of users is rounded up to power of two, so we prepare only few
+     * distinct bulk queries, unused parameters repeat the last user.
+     */
+    static int bulkParameters(int users) {
+        int params = 1;
+        while (params < users) {
+            params <<= 1;
+        }
+        return params;
+    }
+
+    DB2AuthorityReader(Connection adminConn) {
+        Assertions.nullCheck(adminConn, "adminConn");
+        this.conn = adminConn;
+    }
+
+    /**
+     * Creates reader reusing prepared statements of passed cache.
+     */
+    DB2AuthorityReader(DB2StatementCache statements) {
+        Assertions.nullCheck(statements, "statements");
+        this.conn = statements.getConnection();
+        this.statements = statements;
+    }
+
+    /**
+     * Returns a collection of Database type DB2Authority objects for the passed
+     * user.
+     */
+    Collection<DB2Authority> readDatabaseAuthorities(String user) throws SQLException {
+        return readAuthorities(AuthorityQuery.DATABASE, user);
+    }
+
+    private Collection<DB2Authority> readAuthorities(AuthorityQuery query, String user)
+            throws SQLException {
+        String accountIDUC = user.toUpperCase();
+        Collection<DB2Authority> grants = new ArrayList<DB2Authority>();
+        PreparedStatement st = null;
         ResultSet rs = null;
         try {
-            statement = conn.createStatement();
-            rs = statement.executeQuery(sql);
-            // Here we use sun proprietary impl class.
-            // But this class is present also in IBM java(5 and 6 version).
-            // If that would make problem, we can use something like spring JDBC
-            // template.
-            CachedRowSet cr = new CachedRowSetImpl();
-            cr.populate(rs);
-            return cr;
+            st = prepareQuery(query.userSQL);
+            st.setString(1, accountIDUC);
+            rs = st.executeQuery();
+            while (rs.next()) {
+                query.map(rs, accountIDUC, grants);
+            }
         } finally {
-            SQLUtil.closeQuietly(statement);
             SQLUtil.closeQuietly(rs);
+            releaseQuery(st);
+        }
+        return grants;
+    }
+
+    /**
+     * Prepares query, we just read rows once from begin to end, so we ask for
+     * cheapest forward only and read only cursor. Statement is taken from the
+     * cache when we have one.
+     */
+    private PreparedStatement prepareQuery(String sql) throws SQLException {
+        if (statements != null) {
+            return statements.prepareQuery(sql);
+        }
+        return conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    /**
+     * Closes statement unless it is owned by the cache.
+     */
+    private void releaseQuery(PreparedStatement st) {
+        if (statements == null) {
+            SQLUtil.closeQuietly(st);
         }
     }
 
     /**
      * Returns a collection of DB2Authority objects representing all authorities
-     * in the database for the user.
+     * in the database for the user. All authority tables are read using one
+     * UNION ALL statement, so it costs just one round trip to database.
      *
      * @throws SQLException
      */
     Collection<DB2Authority> readAllAuthorities(String user) throws SQLException {
+        String accountIDUC = user.toUpperCase();
         Collection<DB2Authority> allAuths = new ArrayList<DB2Authority>();
-        allAuths.addAll(readIndexAuthorities(user));
-        allAuths.addAll(readSchemaAuthorities(user));
-        allAuths.addAll(readServerAuthorities(user));
-        allAuths.addAll(readTableAuthorities(user));
-        allAuths.addAll(readTablespaceAuthorities(user));
-        allAuths.addAll(readPackageAuthorities(user));
-        allAuths.addAll(readDatabaseAuthorities(user));
+        PreparedStatement st = null;
+        ResultSet rs = null;
+        try {
+            st = prepareQuery(ALL_AUTHORITIES_SQL);
+            for (int i = 1; i <= AuthorityQuery.values().length; i++) {
+                st.setString(i, accountIDUC);
+            }
+            rs = st.executeQuery();
+            while (rs.next()) {
+                AuthorityQuery.valueOf(rs.getString("AUTHTYPE").trim()).map(rs, accountIDUC,
+                        allAuths);
+            }
+        } finally {
+            SQLUtil.closeQuietly(rs);
+            releaseQuery(st);
+        }
         return allAuths;
     }
 
     /**
-     * Returns a collection of Index type DB2Authority objects for the passed
-     * user.
+     * Reads authorities of all passed users at once. Each authority table is
+     * queried just once for the whole set of users and the rows are grouped by
+     * grantee. Caller is responsible for passing reasonably sized set of users,
+     * all users are bound into one IN predicate.
+     *
+     * @return map of uppercased user name to its authorities, in the order of
+     *         passed users. Users without any authority are mapped to empty
+     *         collection.
+     * @throws SQLException
      */
-    Collection<DB2Authority> readIndexAuthorities(String user) throws SQLException {
-        String accountIDUC = user.toUpperCase();
-
-        String sql =
-                "SELECT * FROM SYSIBM.SYSINDEXAUTH WHERE GRANTEE = '" + accountIDUC
-                        + "' AND GRANTEETYPE = 'U'";
-        Collection<DB2Authority> grants = new ArrayList<DB2Authority>();
-        ResultSet rs = executeQuery(sql);
-        while (rs.next()) {
-            if (rs.getString("CONTROLAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_INDEX, "CONTROL", rs.getString("CREATOR")
-                        .trim()
-                        + "." + rs.getString("NAME"), accountIDUC));
-            }
+    Map<String, Collection<DB2Authority>> readAllAuthorities(Collection<String> users)
+            throws SQLException {
+        Map<String, Collection<DB2Authority>> allAuths = emptyAuthorities(users);
+        if (allAuths.isEmpty()) {
+            return allAuths;
         }
-        return grants;
+        for (AuthorityQuery query : AuthorityQuery.values()) {
+            readAuthorities(query, allAuths);
+        }
+        return allAuths;
     }
 
-    Collection<DB2Authority> readPackageAuthorities(String user) throws SQLException {
-        String accountIDUC = user.toUpperCase();
+    /**
+     * Creates map of uppercased user name to empty collection of authorities
+     * in the order of passed users.
+     */
+    static Map<String, Collection<DB2Authority>> emptyAuthorities(Collection<String> users) {
+        Map<String, Collection<DB2Authority>> allAuths =
+                new LinkedHashMap<String, Collection<DB2Authority>>();
+        for (String user : users) {
+            allAuths.put(user.toUpperCase(), new ArrayList<DB2Authority>());
+        }
+        return allAuths;
+    }
 
-        String sql =
-                "SELECT * FROM SYSIBM.SYSPLANAUTH WHERE GRANTEE = '" + accountIDUC
-                        + "' AND GRANTEETYPE = 'U'";
+    /**
+     * Reads authorities of one table for all users that are keys of passed
+     * map and adds them to the map.
+     */
+    void readAuthorities(AuthorityQuery query, Map<String, Collection<DB2Authority>> auths)
+            throws SQLException {
+        PreparedStatement st = null;
+        ResultSet rs = null;
+        try {
+            final int params = bulkParameters(auths.size());
+            st = prepareQuery(query.bulkSQL(params));
+            int index = 1;
+            String user = null;
+            for (String grantee : auths.keySet()) {
+                user = grantee;
+                st.setString(index++, user);
+            }
+            while (index <= params) {
+                st.setString(index++, user);
+            }
+            rs = st.executeQuery();
+            mapGrantees(query, rs, auths);
+        } finally {
+            SQLUtil.closeQuietly(rs);
+            releaseQuery(st);
+        }
+    }
 
-        Collection<DB2Authority> grants = new ArrayList<DB2Authority>();
+    /**
+     * Reads authorities of all passed users scanning each authority table once
+     * without restricting grantee. This is cheaper than
+     * {@link #readAllAuthorities(Collection)} when we need authorities of all
+     * users, e.g. for sync snapshot. Rows of grantees not passed are skipped.
+     */
+    Map<String, Collection<DB2Authority>> readAllUsersAuthorities(Collection<String> users)
+            throws SQLException {
+        Map<String, Collection<DB2Authority>> allAuths = emptyAuthorities(users);
+        for (AuthorityQuery query : AuthorityQuery.values()) {
+            PreparedStatement st = null;
+            ResultSet rs = null;
+            try {
+                st = prepareQuery(query.sql);
+                rs = st.executeQuery();
+                mapGrantees(query, rs, allAuths);
+            } finally {
+                SQLUtil.closeQuietly(rs);
+                releaseQuery(st);
+            }
+        }
+        return allAuths;
+    }
 
-        ResultSet rs = executeQuery(sql);
+    private static void mapGrantees(AuthorityQuery query, ResultSet rs,
+            Map<String, Collection<DB2Authority>> auths) throws SQLException {
         while (rs.next()) {
-            String creator = rs.getString("CREATOR").trim();
-            String packageName = creator + "." + rs.getString("NAME");
-            if (rs.getString("CONTROLAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_PACKAGE, "CONTROL", packageName, accountIDUC));
-            }
-            if (rs.getString("BINDAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_PACKAGE, "BIND", packageName, accountIDUC));
-            }
-            if (rs.getString("EXECUTEAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_PACKAGE, "EXECUTE", packageName, accountIDUC));
+            final String grantee = rs.getString("GRANTEE").trim();
+            final Collection<DB2Authority> grants = auths.get(grantee);
+            if (grants != null) {
+                query.map(rs, grantee, grants);
             }
         }
-        return grants;
     }
 
     /**
-     * Returns a collection of Schema type DB2Authority objects for the passed
+     * Returns a collection of Index type DB2Authority objects for the passed
      * user.
      */
-    Collection<DB2Authority> readSchemaAuthorities(String user) throws SQLException {
-        String accountIDUC = user.toUpperCase();
-
-        String sql =
-                "SELECT * FROM SYSIBM.SYSSCHEMAAUTH WHERE GRANTEE = '" + accountIDUC
-                        + "' AND GRANTEETYPE = 'U'";
+    Collection<DB2Authority> readIndexAuthorities(String user) throws SQLException {
+        return readAuthorities(AuthorityQuery.INDEX, user);
+    }
 
-        Collection<DB2Authority> grants = new ArrayList<DB2Authority>();
+    Collection<DB2Authority> readPackageAuthorities(String user) throws SQLException {
+        return readAuthorities(AuthorityQuery.PACKAGE, user);
+    }
 
-        ResultSet rs = executeQuery(sql);
-        while (rs.next()) {
-            if (rs.getString("CREATEINAUTH").equals("Y")
-                    || rs.getString("CREATEINAUTH").equals("G")) {
-                grants.add(new DB2Authority(AUTH_TYPE_SCHEMA, "CREATEIN", rs
-                        .getString("SCHEMANAME"), accountIDUC));
-            }
-            if (rs.getString("ALTERINAUTH").equals("Y") || rs.getString("ALTERINAUTH").equals("G")) {
-                grants.add(new DB2Authority(AUTH_TYPE_SCHEMA, "ALTERIN",
-                        rs.getString("SCHEMANAME"), accountIDUC));
-            }
-            if (rs.getString("DROPINAUTH").equals("Y") || rs.getString("DROPINAUTH").equals("G")) {
-                grants.add(new DB2Authority(AUTH_TYPE_SCHEMA, "DROPIN", rs.getString("SCHEMANAME"),
-                        accountIDUC));
-            }
-        }
-        return grants;
+    /**
+     * Returns a collection of Schema type DB2Authority objects for the passed
+     * user.
+     */
+    Collection<DB2Authority> readSchemaAuthorities(String user) throws SQLException {
+        return readAuthorities(AuthorityQuery.SCHEMA, user);
     }
 
     /**
@@ -221,17 +487,7 @@ class DB2AuthorityReader {
      * the passed user.
      */
     Collection<DB2Authority> readServerAuthorities(String user) throws SQLException {
-        String accountIDUC = user.toUpperCase();
-        String sql =
-                "SELECT * FROM SYSIBM.SYSPASSTHRUAUTH" + " WHERE GRANTEE = '" + accountIDUC
-                        + "' AND GRANTEETYPE = 'U'";
-        Collection<DB2Authority> grants = new ArrayList<DB2Authority>();
-        ResultSet rs = executeQuery(sql);
-        while (rs.next()) {
-            grants.add(new DB2Authority(AUTH_TYPE_SERVER, "PASSTHRU", rs.getString("SERVERNAME"),
-                    accountIDUC));
-        }
-        return grants;
+        return readAuthorities(AuthorityQuery.SERVER, user);
     }
 
     /**
@@ -239,58 +495,7 @@ class DB2AuthorityReader {
      * user.
      */
     Collection<DB2Authority> readTableAuthorities(String user) throws SQLException {
-        String accountIDUC = user.toUpperCase();
-
-        String sql =
-                "SELECT * FROM SYSIBM.SYSTABAUTH WHERE GRANTEE = '" + accountIDUC
-                        + "' AND GRANTEETYPE = 'U'";
-
-        Collection<DB2Authority> grants = new ArrayList<DB2Authority>();
-
-        ResultSet rs = executeQuery(sql);
-        while (rs.next()) {
-            if (rs.getString("CONTROLAUTH").equals("Y")) {
-                grants.add(new DB2Authority(AUTH_TYPE_TABLE, "CONTROL", rs.getString("TCREATOR")
-                        .trim()
-                        + "." + rs.getString("TTNAME").trim(), accountIDUC));
-            }
-            if (rs.getString("ALTERAUTH").equals("Y") || rs.getString("ALTERAUTH").equals("G")) {
-                grants.add(new DB2Authority(AUTH_TYPE_TABLE, "ALTER", rs.getString("TCREATOR")
-                        .trim()
-                        + "." + rs.getString("TTNAME").trim(), accountIDUC));
-            }
-            if (rs.getString("DELETEAUTH").equals("Y") || rs.getString("DELETEAUTH").equals("G")) {
-                grants.add(new DB2Authority(AUTH_TYPE_TABLE, "DELETE", rs.getString("TCREATOR")
-                        .trim()
-                        + "." + rs.getString("TTNAME").trim(), accountIDUC));
-            }
-            if (rs.getString("INDEXAUTH").equals("Y") || rs.getString("INDEXAUTH").equals("G")) {
-                grants.add(new DB2Authority(AUTH_TYPE_TABLE, "INDEX", rs.getString("TCREATOR")
-                        .trim()
-                        + "." + rs.getString("TTNAME").trim(), accountIDUC));
-            }
-            if (rs.getString("INSERTAUTH").equals("Y") || rs.getString("INSERTAUTH").equals("G")) {
-                grants.add(new DB2Authority(AUTH_TYPE_TABLE, "INSERT", rs.getString("TCREATOR")
-                        .trim()
-                        + "." + rs.getString("TTNAME").trim(), accountIDUC));
-            }
-            if (rs.getString("SELECTAUTH").equals("Y") || rs.getString("SELECTAUTH").equals("G")) {
-                grants.add(new DB2Authority(AUTH_TYPE_TABLE, "SELECT", rs.getString("TCREATOR")
-                        .trim()
-                        + "." + rs.getString("TTNAME").trim(), accountIDUC));
-            }
-            if (rs.getString("UPDATEAUTH").equals("Y") || rs.getString("UPDATEAUTH").equals("G")) {
-                grants.add(new DB2Authority(AUTH_TYPE_TABLE, "UPDATE", rs.getString("TCREATOR")
-                        .trim()
-                        + "." + rs.getString("TTNAME").trim(), accountIDUC));
-            }
-            if (rs.getString("REFAUTH").equals("Y") || rs.getString("REFAUTH").equals("G")) {
-                grants.add(new DB2Authority(AUTH_TYPE_TABLE, "REFERENCES", rs.getString("TCREATOR")
-                        .trim()
-                        + "." + rs.getString("TTNAME").trim(), accountIDUC));
-            }
-        }
-        return grants;
+        return readAuthorities(AuthorityQuery.TABLE, user);
     }
 
     /**
@@ -298,21 +503,6 @@ class DB2AuthorityReader {
      * passed user.
      */
     Collection<DB2Authority> readTablespaceAuthorities(String user) throws SQLException {
-        String accountIDUC = user.toUpperCase();
-        String sql =
-                "SELECT * FROM SYSIBM.SYSTBSPACEAUTH, SYSIBM.SYSTABLESPACES"
-                        + " WHERE SYSIBM.SYSTBSPACEAUTH.GRANTEE = '"
-                        + accountIDUC
-                        + "' AND SYSIBM.SYSTBSPACEAUTH.GRANTEETYPE = 'U' "
-                        + "AND (SYSIBM.SYSTBSPACEAUTH.USEAUTH = 'Y' OR SYSIBM.SYSTBSPACEAUTH.USEAUTH = 'G') "
-                        + "AND SYSIBM.SYSTBSPACEAUTH.TBSPACEID = SYSIBM.SYSTABLESPACES.TBSPACEID";
-
-        Collection<DB2Authority> grants = new ArrayList<DB2Authority>();
-        ResultSet rs = executeQuery(sql);
-        while (rs.next()) {
-            grants.add(new DB2Authority(AUTH_TYPE_TABLESPACE, "USE", rs.getString("TBSPACE"),
-                    accountIDUC));
-        }
-        return grants;
+        return readAuthorities(AuthorityQuery.TABLESPACE, user);
     }
 }
@@ -26,27 +26,70 @@ import static org.identityconnectors.db2.DB2Messages.DB2_ADMINACCOUNT_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_ADMINACCOUNT_HELP;
 import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPASSWORD_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPASSWORD_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLIDLETIMEOUT_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLIDLETIMEOUT_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLMAXSIZE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLMAXSIZE_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLMINSIZE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLMINSIZE_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLWARMUPSIZE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLWARMUPSIZE_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_AUTHORITYCACHEMAXSIZE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_AUTHORITYCACHEMAXSIZE_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_AUTHORITYCACHESHARED_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_AUTHORITYCACHESHARED_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_AUTHORITYCACHETTL_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_AUTHORITYCACHETTL_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_AUTHORITYREADPARALLELISM_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_AUTHORITYREADPARALLELISM_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_BULKCOMMITINTERVAL_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_BULKCOMMITINTERVAL_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_CONNECTIONPROPERTIES_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_CONNECTIONPROPERTIES_HELP;
 import static org.identityconnectors.db2.DB2Messages.DB2_DATABASENAME_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_DATABASENAME_HELP;
 import static org.identityconnectors.db2.DB2Messages.DB2_DATASOURCE_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_DATASOURCE_HELP;
 import static org.identityconnectors.db2.DB2Messages.DB2_DSJNDIENV_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_DSJNDIENV_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_GRANTBATCHSIZE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_GRANTBATCHSIZE_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_GROUPCOMMITINTERVAL_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_GROUPCOMMITINTERVAL_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_GROUPCOMMITSIZE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_GROUPCOMMITSIZE_HELP;
 import static org.identityconnectors.db2.DB2Messages.DB2_HOST_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_HOST_HELP;
 import static org.identityconnectors.db2.DB2Messages.DB2_JDBCDRIVER_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_JDBCDRIVER_HELP;
 import static org.identityconnectors.db2.DB2Messages.DB2_JDBCSUBPROTOCOL_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_JDBCSUBPROTOCOL_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_LAZYCONNECT_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_LAZYCONNECT_HELP;
 import static org.identityconnectors.db2.DB2Messages.DB2_PORT_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_PORT_HELP;
 import static org.identityconnectors.db2.DB2Messages.DB2_REPLACEALLGRANTSONUPDATE_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_REPLACEALLGRANTSONUPDATE_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_TESTSQL_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_TESTSQL_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_UPDATECOALESCEWINDOW_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_UPDATECOALESCEWINDOW_HELP;
 import static org.identityconnectors.db2.DB2Messages.DB2_URL_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_URL_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_VALIDATIONINTERVAL_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_VALIDATIONINTERVAL_HELP;
+import static org.identityconnectors.db2.DB2Messages.DB2_VALIDATIONTIMEOUT_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_VALIDATIONTIMEOUT_HELP;
 
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Map;
 
+import org.identityconnectors.common.Base64;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.db2.Type2ConnectionInfo.Type2ConnectionInfoBuilder;
 import org.identityconnectors.db2.Type4ConnectionInfo.Type4ConnectionInfoBuilder;
@@ -143,6 +186,59 @@ import org.identityconnectors.framework.spi.ConfigurationProperty;
  * grants on update. Otherwise we do addition of passed grants to the grants
  * user already has. This property can be removed in future version, when IDM
  * will properly call UpdateAttributeValuesOp operations.</li>
+ * <li>authorityReadParallelism : Number of connections used to read authority
+ * tables in parallel during search. Default to 1, authority tables are read
+ * one after another on the admin connection.</li>
+ * <li>authorityCacheTTL : Time in seconds authorities read for user are
+ * cached. Default to 0, authorities are not cached.</li>
+ * <li>authorityCacheMaxSize : Maximal number of users with cached authorities.
+ * Default to 1000.</li>
+ * <li>authorityCacheShared : When true, cache of authorities is shared by all
+ * connector instances with the same connection properties and cache settings
+ * in the JVM. Default to false.</li>
+ * <li>grantBatchSize : Number of GRANT/REVOKE statements sent to database in
+ * one JDBC batch. Default to 1, each statement is executed separately.</li>
+ * <li>bulkCommitInterval : Number of users created by bulk create script in
+ * one transaction. Default to 100.</li>
+ * <li>updateCoalesceWindow : Time in milliseconds updates of the same user
+ * are merged and applied as one transaction. Default to 0, updates are not
+ * coalesced.</li>
+ * <li>groupCommitInterval : Maximal time in milliseconds writes of connector
+ * instances of the same configuration wait to be committed together while
+ * previous group is committed, write is committed at once when no group is
+ * committed. With update coalescing on, coalesced update waits for the
+ * window and then for the group, so both times add up. Default to 0, each
+ * write is committed separately.</li>
+ * <li>groupCommitSize : Maximal number of writes committed together when
+ * group commit is on. Default to 50.</li>
+ * <li>adminPoolMaxSize : Maximal number of admin connections in pool shared
+ * by connector instances of the same configuration. Default to 0, each
+ * connector instance keeps its own admin connection.</li>
+ * <li>adminPoolMinSize : Number of pooled admin connections kept open when
+ * idle, they are opened in background when pool is created. Default to
+ * 0.</li>
+ * <li>adminPoolIdleTimeout : Time in seconds pooled admin connection can
+ * stay idle before it is closed, idle connections are checked in background
+ * twice per timeout. Default to 300.</li>
+ * <li>validationInterval : Time in seconds connection used successfully is
+ * considered alive without check. Default to 30, 0 means connection is
+ * always checked.</li>
+ * <li>validationTimeout : Time in seconds connection check using
+ * Connection.isValid waits for database, 0 means no limit. Default to
+ * 5.</li>
+ * <li>testSQL : Query used to test the connection. When not set, query is
+ * found by probing the database once per database in the JVM.</li>
+ * <li>lazyConnect : Whether admin connection is opened on first operation
+ * which needs it instead of when connector instance is created. Default to
+ * false.</li>
+ * <li>adminPoolWarmUpSize : Number of admin connections opened in background
+ * in parallel when pool is created. Default to 0, connections are opened on
+ * demand.</li>
+ * <li>connectionProperties : JDBC driver properties in name=value format,
+ * for example fetchSize=100 or progressiveStreaming=1. Properties are
+ * checked against the known IBM Data Server Driver properties and appended
+ * to the connection URL. Not supported with dataSource, set them on the
+ * datasource instead.</li>
  * </ul>
  *
  * <h4><a name="finalNotes"/>Note that IBM ships two drivers for DB2. We have
@@ -167,6 +263,8 @@ import org.identityconnectors.framework.spi.ConfigurationProperty;
  */
 public class DB2Configuration extends AbstractConfiguration implements Cloneable {
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     /**
      * Constructor needed for connector framework. Will initialize fields to
      * default values
@@ -249,6 +347,72 @@ public class DB2Configuration extends AbstractConfiguration implements Cloneable
     /** Full url for connecting to DB2 */
     private String url;
 
+    /**
+     * Number of read connections used to read authority tables in parallel.
+     * When 1, authority tables are read sequentially using admin connection.
+     */
+    private int authorityReadParallelism = 1;
+
+    /**
+     * Time in seconds the authorities of user are cached. When 0, authorities
+     * are not cached.
+     */
+    private int authorityCacheTTL = 0;
+
+    /** Maximal number of users with cached authorities */
+    private int authorityCacheMaxSize = 1000;
+
+    /**
+     * Whether cache of authorities is shared by all connector instances with
+     * the same connection properties.
+     */
+    private boolean authorityCacheShared = false;
+
+    /**
+     * Number of GRANT/REVOKE statements sent in one JDBC batch. When 1,
+     * statements are executed one by one.
+     */
+    private int grantBatchSize = 1;
+
+    /** Number of users created by bulk create script in one transaction */
+    private int bulkCommitInterval = 100;
+
+    /** Time in milliseconds updates of the same user are merged, 0 disables coalescing */
+    private int updateCoalesceWindow = 0;
+
+    /** Time in milliseconds writes wait to be committed together, 0 disables group commit */
+    private int groupCommitInterval = 0;
+
+    /** Maximal number of writes committed together */
+    private int groupCommitSize = 50;
+
+    /** Maximal number of pooled admin connections, 0 disables the pool */
+    private int adminPoolMaxSize = 0;
+
+    /** Number of pooled admin connections kept open when idle */
+    private int adminPoolMinSize = 0;
+
+    /** Time in seconds pooled admin connection can stay idle before it is closed */
+    private int adminPoolIdleTimeout = 300;
+
+    /** Time in seconds connection used successfully is not checked by checkAlive */
+    private int validationInterval = 30;
+
+    /** Time in seconds connection check waits for database */
+    private int validationTimeout = 5;
+
+    /** Query testing the connection, found by probing when not set */
+    private String testSQL;
+
+    /** Whether admin connection is opened on first use instead of in init */
+    private boolean lazyConnect = false;
+
+    /** Number of pooled admin connections opened in parallel when pool is created */
+    private int adminPoolWarmUpSize = 0;
+
+    /** JDBC driver properties in name=value format passed to the driver on connect */
+    private String[] connectionProperties;
+
     /**
      * @return admin account
      */
@@ -453,6 +617,334 @@ public class DB2Configuration extends AbstractConfiguration implements Cloneable
         this.replaceAllGrantsOnUpdate = replaceAllGrantsOnUpdate;
     }
 
+    /**
+     * @return number of connections used to read authority tables in parallel
+     */
+    @ConfigurationProperty(order = 11, displayMessageKey = DB2_AUTHORITYREADPARALLELISM_DISPLAY,
+            helpMessageKey = DB2_AUTHORITYREADPARALLELISM_HELP)
+    public int getAuthorityReadParallelism() {
+        return authorityReadParallelism;
+    }
+
+    /**
+     * @param authorityReadParallelism
+     *            the authorityReadParallelism to set
+     */
+    public void setAuthorityReadParallelism(int authorityReadParallelism) {
+        this.authorityReadParallelism = authorityReadParallelism;
+    }
+
+    /**
+     * @return time in seconds the authorities of user are cached
+     */
+    @ConfigurationProperty(order = 12, displayMessageKey = DB2_AUTHORITYCACHETTL_DISPLAY,
+            helpMessageKey = DB2_AUTHORITYCACHETTL_HELP)
+    public int getAuthorityCacheTTL() {
+        return authorityCacheTTL;
+    }
+
+    /**
+     * @param authorityCacheTTL
+     *            the authorityCacheTTL to set
+     */
+    public void setAuthorityCacheTTL(int authorityCacheTTL) {
+        this.authorityCacheTTL = authorityCacheTTL;
+    }
+
+    /**
+     * @return maximal number of users with cached authorities
+     */
+    @ConfigurationProperty(order = 13, displayMessageKey = DB2_AUTHORITYCACHEMAXSIZE_DISPLAY,
+            helpMessageKey = DB2_AUTHORITYCACHEMAXSIZE_HELP)
+    public int getAuthorityCacheMaxSize() {
+        return authorityCacheMaxSize;
+    }
+
+    /**
+     * @param authorityCacheMaxSize
+     *            the authorityCacheMaxSize to set
+     */
+    public void setAuthorityCacheMaxSize(int authorityCacheMaxSize) {
+        this.authorityCacheMaxSize = authorityCacheMaxSize;
+    }
+
+    /**
+     * @return whether cache of authorities is shared in the JVM
+     */
+    @ConfigurationProperty(order = 14, displayMessageKey = DB2_AUTHORITYCACHESHARED_DISPLAY,
+            helpMessageKey = DB2_AUTHORITYCACHESHARED_HELP)
+    public boolean isAuthorityCacheShared() {
+        return authorityCacheShared;
+    }
+
+    /**
+     * @param authorityCacheShared
+     *            the authorityCacheShared to set
+     */
+    public void setAuthorityCacheShared(boolean authorityCacheShared) {
+        this.authorityCacheShared = authorityCacheShared;
+    }
+
+    /**
+     * @return number of GRANT/REVOKE statements sent in one JDBC batch
+     */
+    @ConfigurationProperty(order = 15, displayMessageKey = DB2_GRANTBATCHSIZE_DISPLAY,
+            helpMessageKey = DB2_GRANTBATCHSIZE_HELP)
+    public int getGrantBatchSize() {
+        return grantBatchSize;
+    }
+
+    /**
+     * @param grantBatchSize
+     *            the grantBatchSize to set
+     */
+    public void setGrantBatchSize(int grantBatchSize) {
+        this.grantBatchSize = grantBatchSize;
+    }
+
+    /**
+     * @return number of users created by bulk create script in one transaction
+     */
+    @ConfigurationProperty(order = 16, displayMessageKey = DB2_BULKCOMMITINTERVAL_DISPLAY,
+            helpMessageKey = DB2_BULKCOMMITINTERVAL_HELP)
+    public int getBulkCommitInterval() {
+        return bulkCommitInterval;
+    }
+
+    /**
+     * @param bulkCommitInterval
+     *            the bulkCommitInterval to set
+     */
+    public void setBulkCommitInterval(int bulkCommitInterval) {
+        this.bulkCommitInterval = bulkCommitInterval;
+    }
+
+    /**
+     * @return time in milliseconds updates of the same user are merged
+     */
+    @ConfigurationProperty(order = 17, displayMessageKey = DB2_UPDATECOALESCEWINDOW_DISPLAY,
+            helpMessageKey = DB2_UPDATECOALESCEWINDOW_HELP)
+    public int getUpdateCoalesceWindow() {
+        return updateCoalesceWindow;
+    }
+
+    /**
+     * @param updateCoalesceWindow
+     *            the updateCoalesceWindow to set
+     */
+    public void setUpdateCoalesceWindow(int updateCoalesceWindow) {
+        this.updateCoalesceWindow = updateCoalesceWindow;
+    }
+
+    /**
+     * @return time in milliseconds writes wait to be committed together
+     */
+    @ConfigurationProperty(order = 18, displayMessageKey = DB2_GROUPCOMMITINTERVAL_DISPLAY,
+            helpMessageKey = DB2_GROUPCOMMITINTERVAL_HELP)
+    public int getGroupCommitInterval() {
+        return groupCommitInterval;
+    }
+
+    /**
+     * @param groupCommitInterval
+     *            the groupCommitInterval to set
+     */
+    public void setGroupCommitInterval(int groupCommitInterval) {
+        this.groupCommitInterval = groupCommitInterval;
+    }
+
+    /**
+     * @return maximal number of writes committed together
+     */
+    @ConfigurationProperty(order = 19, displayMessageKey = DB2_GROUPCOMMITSIZE_DISPLAY,
+            helpMessageKey = DB2_GROUPCOMMITSIZE_HELP)
+    public int getGroupCommitSize() {
+        return groupCommitSize;
+    }
+
+    /**
+     * @param groupCommitSize
+     *            the groupCommitSize to set
+     */
+    public void setGroupCommitSize(int groupCommitSize) {
+        this.groupCommitSize = groupCommitSize;
+    }
+
+    /**
+     * @return maximal number of pooled admin connections
+     */
+    @ConfigurationProperty(order = 20, displayMessageKey = DB2_ADMINPOOLMAXSIZE_DISPLAY,
+            helpMessageKey = DB2_ADMINPOOLMAXSIZE_HELP)
+    public int getAdminPoolMaxSize() {
+        return adminPoolMaxSize;
+    }
+
+    /**
+     * @param adminPoolMaxSize
+     *            the adminPoolMaxSize to set
+     */
+    public void setAdminPoolMaxSize(int adminPoolMaxSize) {
+        this.adminPoolMaxSize = adminPoolMaxSize;
+    }
+
+    /**
+     * @return number of pooled admin connections kept open when idle
+     */
+    @ConfigurationProperty(order = 21, displayMessageKey = DB2_ADMINPOOLMINSIZE_DISPLAY,
+            helpMessageKey = DB2_ADMINPOOLMINSIZE_HELP)
+    public int getAdminPoolMinSize() {
+        return adminPoolMinSize;
+    }
+
+    /**
+     * @param adminPoolMinSize
+     *            the adminPoolMinSize to set
+     */
+    public void setAdminPoolMinSize(int adminPoolMinSize) {
+        this.adminPoolMinSize = adminPoolMinSize;
+    }
+
+    /**
+     * @return time in seconds pooled admin connection can stay idle
+     */
+    @ConfigurationProperty(order = 22, displayMessageKey = DB2_ADMINPOOLIDLETIMEOUT_DISPLAY,
+            helpMessageKey = DB2_ADMINPOOLIDLETIMEOUT_HELP)
+    public int getAdminPoolIdleTimeout() {
+        return adminPoolIdleTimeout;
+    }
+
+    /**
+     * @param adminPoolIdleTimeout
+     *            the adminPoolIdleTimeout to set
+     */
+    public void setAdminPoolIdleTimeout(int adminPoolIdleTimeout) {
+        this.adminPoolIdleTimeout = adminPoolIdleTimeout;
+    }
+
+    /**
+     * @return time in seconds connection used successfully is not checked
+     */
+    @ConfigurationProperty(order = 23, displayMessageKey = DB2_VALIDATIONINTERVAL_DISPLAY,
+            helpMessageKey = DB2_VALIDATIONINTERVAL_HELP)
+    public int getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * @param validationInterval
+     *            the validationInterval to set
+     */
+    public void setValidationInterval(int validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * @return time in seconds connection check waits for database
+     */
+    @ConfigurationProperty(order = 24, displayMessageKey = DB2_VALIDATIONTIMEOUT_DISPLAY,
+            helpMessageKey = DB2_VALIDATIONTIMEOUT_HELP)
+    public int getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    /**
+     * @param validationTimeout
+     *            the validationTimeout to set
+     */
+    public void setValidationTimeout(int validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    /**
+     * @return query testing the connection
+     */
+    @ConfigurationProperty(order = 25, displayMessageKey = DB2_TESTSQL_DISPLAY,
+            helpMessageKey = DB2_TESTSQL_HELP)
+    public String getTestSQL() {
+        return testSQL;
+    }
+
+    /**
+     * @param testSQL
+     *            the testSQL to set
+     */
+    public void setTestSQL(String testSQL) {
+        this.testSQL = testSQL;
+    }
+
+    /**
+     * @return whether admin connection is opened on first use
+     */
+    @ConfigurationProperty(order = 26, displayMessageKey = DB2_LAZYCONNECT_DISPLAY,
+            helpMessageKey = DB2_LAZYCONNECT_HELP)
+    public boolean isLazyConnect() {
+        return lazyConnect;
+    }
+
+    /**
+     * @param lazyConnect
+     *            the lazyConnect to set
+     */
+    public void setLazyConnect(boolean lazyConnect) {
+        this.lazyConnect = lazyConnect;
+    }
+
+    /**
+     * @return number of pooled admin connections opened when pool is created
+     */
+    @ConfigurationProperty(order = 27, displayMessageKey = DB2_ADMINPOOLWARMUPSIZE_DISPLAY,
+            helpMessageKey = DB2_ADMINPOOLWARMUPSIZE_HELP)
+    public int getAdminPoolWarmUpSize() {
+        return adminPoolWarmUpSize;
+    }
+
+    /**
+     * @param adminPoolWarmUpSize
+     *            the adminPoolWarmUpSize to set
+     */
+    public void setAdminPoolWarmUpSize(int adminPoolWarmUpSize) {
+        this.adminPoolWarmUpSize = adminPoolWarmUpSize;
+    }
+
+    /**
+     * @return JDBC driver properties in name=value format
+     */
+    @ConfigurationProperty(order = 28, displayMessageKey = DB2_CONNECTIONPROPERTIES_DISPLAY,
+            helpMessageKey = DB2_CONNECTIONPROPERTIES_HELP)
+    public String[] getConnectionProperties() {
+        if (connectionProperties == null) {
+            return new String[0];
+        }
+        String[] res = new String[connectionProperties.length];
+        System.arraycopy(connectionProperties, 0, res, 0, connectionProperties.length);
+        return res;
+    }
+
+    /**
+     * @param connectionProperties
+     *            the connectionProperties to set
+     */
+    public void setConnectionProperties(String[] connectionProperties) {
+        if (connectionProperties == null) {
+            this.connectionProperties = null;
+        } else {
+            this.connectionProperties = new String[connectionProperties.length];
+            System.arraycopy(connectionProperties, 0, this.connectionProperties, 0,
+                    connectionProperties.length);
+        }
+    }
+
+    /**
+     * Returns connection properties converted to the types the driver
+     * expects, in the order they were specified.
+     *
+     * @return map of property name to typed value, never null
+     */
+    Map<String, Object> getTypedConnectionProperties() {
+        return DB2Specifics.parseConnectionProperties(connectionProperties,
+                getConnectorMessages());
+    }
+
     /**
      * @return the connType
      */
@@ -470,6 +962,55 @@ public class DB2Configuration extends AbstractConfiguration implements Cloneable
         new DB2ConfigurationValidator(this).validate();
     }
 
+    /**
+     * Returns key identifying database and admin account this configuration
+     * connects to. Used to share state between connector instances with the
+     * same connection properties. Key contains digest of admin password,
+     * connection properties and settings of shared pool, validator and group
+     * committer, so configuration with different password or settings, e.g.
+     * after password rotation, does not reuse state created by other one.
+     */
+    String getConfigurationKey() {
+        return getTargetKey() + '|' + adminAccount + '|' + getSettingsDigest();
+    }
+
+    private String getSettingsDigest() {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 digest is not available", e);
+        }
+        if (adminPassword != null) {
+            adminPassword.access(new GuardedString.Accessor() {
+                public void access(char[] clearChars) {
+                    digest.update(UTF8.encode(CharBuffer.wrap(clearChars)));
+                }
+            });
+        }
+        final String settings =
+                new StringBuilder().append('|').append(Arrays.toString(connectionProperties))
+                        .append('|').append(Arrays.toString(dsJNDIEnv)).append('|').append(
+                                testSQL).append('|').append(adminPoolMaxSize).append('|')
+                        .append(adminPoolMinSize).append('|').append(adminPoolIdleTimeout)
+                        .append('|').append(adminPoolWarmUpSize).append('|').append(
+                                validationInterval).append('|').append(validationTimeout)
+                        .append('|').append(groupCommitInterval).append('|').append(
+                                groupCommitSize).append('|').append(grantBatchSize).toString();
+        digest.update(UTF8.encode(settings));
+        return Base64.encode(digest.digest());
+    }
+
+    /**
+     * Returns key identifying database this configuration connects to, that
+     * is datasource or JDBC URL and its parts.
+     */
+    String getTargetKey() {
+        return new StringBuilder().append(dataSource).append('|').append(url).append('|')
+                .append(jdbcDriver).append('|').append(jdbcSubProtocol).append('|').append(host)
+                .append('|').append(port).append('|').append(databaseName).toString();
+    }
+
     Connection createAdminConnection() {
         return createConnection(adminAccount, adminPassword);
     }
@@ -487,13 +1028,17 @@ public class DB2Configuration extends AbstractConfiguration implements Cloneable
         } else if (ConnectionType.TYPE4.equals(connType)) {
             return DB2Specifics.createType4Connection(new Type4ConnectionInfoBuilder().setDriver(
                     jdbcDriver).setHost(host).setPort(port).setSubprotocol(jdbcSubProtocol)
-                    .setDatabase(databaseName).setUser(user).setPassword(password).build());
+                    .setDatabase(databaseName).setUser(user).setPassword(password)
+                    .setProperties(getTypedConnectionProperties()).build());
         } else if (ConnectionType.TYPE2.equals(connType)) {
             return DB2Specifics.createType2Connection(new Type2ConnectionInfoBuilder().setDriver(
                     jdbcDriver).setAliasName(databaseName).setSubprotocol(jdbcSubProtocol).setUser(
-                    user).setPassword(password).build());
+                    user).setPassword(password).setProperties(getTypedConnectionProperties())
+                    .build());
         } else if (ConnectionType.URL.equals(connType)) {
-            return SQLUtil.getDriverMangerConnection(jdbcDriver, url, user, password);
+            return SQLUtil.getDriverMangerConnection(jdbcDriver, DB2Specifics
+                    .appendConnectionProperties(url, getTypedConnectionProperties()), user,
+                    password);
         }
         throw new IllegalStateException("Invalid state of DB2Configuration");
     }
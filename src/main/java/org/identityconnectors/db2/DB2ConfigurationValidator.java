@@ -22,17 +22,36 @@
  */
 package org.identityconnectors.db2;
 
+import static org.identityconnectors.db2.DB2Messages.CONNECTION_PROPERTIES_WITH_DATASOURCE;
+import static org.identityconnectors.db2.DB2Messages.CONNECTION_PROPERTIES_WITH_LEGACY_DRIVER;
 import static org.identityconnectors.db2.DB2Messages.DB2_ADMINACCOUNT_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPASSWORD_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLIDLETIMEOUT_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLMAXSIZE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLMINSIZE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_ADMINPOOLWARMUPSIZE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_AUTHORITYCACHEMAXSIZE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_AUTHORITYCACHETTL_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_AUTHORITYREADPARALLELISM_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_BULKCOMMITINTERVAL_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_DATABASENAME_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_DATASOURCE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_GRANTBATCHSIZE_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_GROUPCOMMITINTERVAL_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_GROUPCOMMITSIZE_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_HOST_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_JDBCDRIVER_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_JDBCSUBPROTOCOL_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_PORT_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_UPDATECOALESCEWINDOW_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.DB2_URL_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_VALIDATIONINTERVAL_DISPLAY;
+import static org.identityconnectors.db2.DB2Messages.DB2_VALIDATIONTIMEOUT_DISPLAY;
 import static org.identityconnectors.db2.DB2Messages.JDBC_DRIVER_CLASS_NOT_FOUND;
 import static org.identityconnectors.db2.DB2Messages.VALIDATE_FAIL;
+import static org.identityconnectors.db2.DB2Messages.VALUE_MUST_BE_POSITIVE;
+import static org.identityconnectors.db2.DB2Messages.VALUE_MUST_NOT_BE_NEGATIVE;
+import static org.identityconnectors.db2.DB2Messages.VALUE_MUST_NOT_EXCEED;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -100,6 +119,7 @@ class DB2ConfigurationValidator {
             asserts.assertNotBlank(cfg.getAdminAccount(), DB2_ADMINACCOUNT_DISPLAY);
             asserts.assertNotNull(cfg.getAdminPassword(), DB2_ADMINPASSWORD_DISPLAY);
             asserts.assertNotBlank(cfg.getJdbcDriver(), DB2_JDBCDRIVER_DISPLAY);
+            checkLegacyDriverProperties();
             try {
                 Class.forName(cfg.getJdbcDriver());
             } catch (ClassNotFoundException e) {
@@ -130,6 +150,7 @@ class DB2ConfigurationValidator {
             asserts.assertNotBlank(cfg.getJdbcDriver(), DB2_JDBCDRIVER_DISPLAY);
             asserts.assertNotBlank(cfg.getDatabaseName(), DB2_DATABASENAME_DISPLAY);
             asserts.assertNotBlank(cfg.getJdbcSubProtocol(), DB2_JDBCSUBPROTOCOL_DISPLAY);
+            checkLegacyDriverProperties();
             try {
                 Class.forName(cfg.getJdbcDriver());
             } catch (ClassNotFoundException e) {
@@ -168,6 +189,7 @@ class DB2ConfigurationValidator {
             asserts.assertNotNull(cfg.getAdminPassword(), DB2_ADMINPASSWORD_DISPLAY);
             asserts.assertNotBlank(cfg.getJdbcDriver(), DB2_JDBCDRIVER_DISPLAY);
             asserts.assertNotBlank(cfg.getJdbcSubProtocol(), DB2_JDBCSUBPROTOCOL_DISPLAY);
+            checkLegacyDriverProperties();
             try {
                 Class.forName(cfg.getJdbcDriver());
             } catch (ClassNotFoundException e) {
@@ -191,6 +213,17 @@ class DB2ConfigurationValidator {
         }
     }
 
+    /**
+     * Legacy CLI driver does not accept properties in URL.
+     */
+    private void checkLegacyDriverProperties() {
+        if (DB2Specifics.CLI_LEGACY_DRIVER.equals(cfg.getJdbcDriver())
+                && cfg.getConnectionProperties().length > 0) {
+            throw new IllegalArgumentException(cfg.getConnectorMessages().format(
+                    CONNECTION_PROPERTIES_WITH_LEGACY_DRIVER, null, cfg.getJdbcDriver()));
+        }
+    }
+
     private void runCheck(List<RuntimeException> reqEx, ConfigChecker reqChecker,
             ConfigChecker... emptyCheckers) {
         if (cfg.getConnType() != null) {
@@ -247,6 +280,52 @@ class DB2ConfigurationValidator {
         if (cfg.getPort() != null) {
             Integer.parseInt(cfg.getPort());
         }
+        assertPositive(cfg.getAuthorityReadParallelism(), DB2_AUTHORITYREADPARALLELISM_DISPLAY);
+        assertNotNegative(cfg.getAuthorityCacheTTL(), DB2_AUTHORITYCACHETTL_DISPLAY);
+        assertPositive(cfg.getAuthorityCacheMaxSize(), DB2_AUTHORITYCACHEMAXSIZE_DISPLAY);
+        assertPositive(cfg.getGrantBatchSize(), DB2_GRANTBATCHSIZE_DISPLAY);
+        assertPositive(cfg.getBulkCommitInterval(), DB2_BULKCOMMITINTERVAL_DISPLAY);
+        assertNotNegative(cfg.getUpdateCoalesceWindow(), DB2_UPDATECOALESCEWINDOW_DISPLAY);
+        assertNotNegative(cfg.getGroupCommitInterval(), DB2_GROUPCOMMITINTERVAL_DISPLAY);
+        assertPositive(cfg.getGroupCommitSize(), DB2_GROUPCOMMITSIZE_DISPLAY);
+        assertNotNegative(cfg.getAdminPoolMaxSize(), DB2_ADMINPOOLMAXSIZE_DISPLAY);
+        assertNotNegative(cfg.getAdminPoolMinSize(), DB2_ADMINPOOLMINSIZE_DISPLAY);
+        assertNotNegative(cfg.getAdminPoolIdleTimeout(), DB2_ADMINPOOLIDLETIMEOUT_DISPLAY);
+        assertNotNegative(cfg.getValidationInterval(), DB2_VALIDATIONINTERVAL_DISPLAY);
+        assertNotNegative(cfg.getValidationTimeout(), DB2_VALIDATIONTIMEOUT_DISPLAY);
+        assertNotNegative(cfg.getAdminPoolWarmUpSize(), DB2_ADMINPOOLWARMUPSIZE_DISPLAY);
+        if (cfg.getConnectionProperties().length > 0) {
+            if (ConnectionType.DATASOURCE.equals(cfg.getConnType())) {
+                throw new IllegalArgumentException(cfg.getConnectorMessages().format(
+                        CONNECTION_PROPERTIES_WITH_DATASOURCE, null));
+            }
+            cfg.getTypedConnectionProperties();
+        }
+        if (cfg.getAdminPoolMaxSize() > 0
+                && cfg.getAdminPoolMinSize() > cfg.getAdminPoolMaxSize()) {
+            throw new IllegalArgumentException(cfg.getConnectorMessages().format(
+                    VALUE_MUST_NOT_EXCEED, null,
+                    cfg.getConnectorMessages().format(DB2_ADMINPOOLMINSIZE_DISPLAY,
+                            DB2_ADMINPOOLMINSIZE_DISPLAY),
+                    cfg.getConnectorMessages().format(DB2_ADMINPOOLMAXSIZE_DISPLAY,
+                            DB2_ADMINPOOLMAXSIZE_DISPLAY)));
+        }
+    }
+
+    private void assertPositive(int value, String displayKey) {
+        if (value < 1) {
+            final String name = cfg.getConnectorMessages().format(displayKey, displayKey);
+            throw new IllegalArgumentException(cfg.getConnectorMessages().format(
+                    VALUE_MUST_BE_POSITIVE, null, name, value));
+        }
+    }
+
+    private void assertNotNegative(int value, String displayKey) {
+        if (value < 0) {
+            final String name = cfg.getConnectorMessages().format(displayKey, displayKey);
+            throw new IllegalArgumentException(cfg.getConnectorMessages().format(
+                    VALUE_MUST_NOT_BE_NEGATIVE, null, name, value));
+        }
     }
 
 }
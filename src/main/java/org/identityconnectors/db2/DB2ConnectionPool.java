@@ -0,0 +1,411 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.dbcommon.SQLUtil;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Pool of admin connections shared by all connector instances of the same
+ * configuration in the JVM. Connector instances lease connection for each
+ * operation, so number of open connections follows number of concurrent
+ * operations, not number of connector instances. Each pooled connection
+ * keeps its own cache of prepared catalog queries. <br/>
+ * Pool opens at most <code>adminPoolMaxSize</code> connections, callers wait
+ * for connection when all are leased. Connections idle longer than
+ * <code>adminPoolIdleTimeout</code> are closed, but pool keeps at least
+ * <code>adminPoolMinSize</code> connections open. Both are ensured by
+ * maintenance task running periodically in background, see
+ * {@link #maintain()}. Idle connection is checked by
+ * {@link DB2ConnectionValidator} before it is leased. <br/>
+ * New pool opens <code>adminPoolWarmUpSize</code> connections, at least
+ * <code>adminPoolMinSize</code>, in background in parallel, see
+ * {@link #warmUp(int)}.
+ */
+final class DB2ConnectionPool {
+    private final static Log LOG = Log.getLog(DB2ConnectionPool.class);
+    /** Shared pools keyed by configuration */
+    private static final Map<String, DB2ConnectionPool> SHARED_POOLS =
+            new HashMap<String, DB2ConnectionPool>();
+
+    private static final class IdleConnection {
+        final DB2StatementCache conn;
+        final long since;
+
+        IdleConnection(DB2StatementCache conn, long since) {
+            this.conn = conn;
+            this.since = since;
+        }
+    }
+
+    /** Returned by {@link #takeIdleOrReserve(boolean)} when place for new connection is reserved */
+    private static final IdleConnection RESERVED = new IdleConnection(null, 0);
+
+    private final String key;
+    private final DB2Configuration cfg;
+    /** Idle connections, most recently used first, guarded by this */
+    private final LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>();
+    /** Number of open connections, idle and leased, guarded by this */
+    private int opened;
+    /** Whether pool was closed by last connector instance, guarded by this */
+    private boolean closed;
+    /** Number of connector instances using pool, guarded by SHARED_POOLS */
+    private int references;
+    private final DB2ConnectionValidator validator;
+    /** Runs {@link #maintain()} periodically */
+    private ScheduledExecutorService maintenance;
+
+    private DB2ConnectionPool(String key, DB2Configuration cfg) {
+        this.key = key;
+        this.cfg = cfg;
+        this.validator = new DB2ConnectionValidator(cfg);
+    }
+
+    /**
+     * Returns pool shared by all connector instances using the same
+     * configuration key. Pool is created by first caller with its
+     * configuration. Each call must be paired with {@link #release()}.
+     */
+    static DB2ConnectionPool acquire(DB2Configuration cfg) {
+        final String key = cfg.getConfigurationKey();
+        synchronized (SHARED_POOLS) {
+            DB2ConnectionPool pool = SHARED_POOLS.get(key);
+            if (pool == null) {
+                pool = new DB2ConnectionPool(key, cfg);
+                SHARED_POOLS.put(key, pool);
+                final int initial =
+                        Math.max(cfg.getAdminPoolWarmUpSize(), cfg.getAdminPoolMinSize());
+                if (initial > 0) {
+                    pool.warmUp(initial);
+                }
+                pool.startMaintenance();
+            }
+            pool.references++;
+            return pool;
+        }
+    }
+
+    /**
+     * Releases pool, all connections are closed when last connector instance
+     * releases pool.
+     */
+    void release() {
+        synchronized (SHARED_POOLS) {
+            if (--references > 0) {
+                return;
+            }
+            SHARED_POOLS.remove(key);
+        }
+        maintenance.shutdownNow();
+        final List<DB2StatementCache> toClose = new ArrayList<DB2StatementCache>();
+        synchronized (this) {
+            closed = true;
+            for (IdleConnection entry : idle) {
+                toClose.add(entry.conn);
+            }
+            opened -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+        closeConnections(toClose);
+        LOG.ok("Admin connection pool closed");
+    }
+
+    /**
+     * Leases connection. Idle connection is checked first, broken connection
+     * is closed and next one is tried. New connection is opened when there is
+     * no idle connection and pool is not full, otherwise we wait for
+     * connection to be returned.
+     */
+    DB2StatementCache borrow() {
+        return borrow(true);
+    }
+
+    /**
+     * Leases connection like {@link #borrow()}, but returns null instead of
+     * waiting when all connections are leased. Used by helpers which can do
+     * their work also without additional connection.
+     */
+    DB2StatementCache tryBorrow() {
+        return borrow(false);
+    }
+
+    private DB2StatementCache borrow(boolean wait) {
+        closeConnections(evictIdle());
+        while (true) {
+            final IdleConnection entry = takeIdleOrReserve(wait);
+            if (entry == null) {
+                return null;
+            }
+            if (entry == RESERVED) {
+                return openConnection();
+            }
+            if (isValid(entry.conn)) {
+                return entry.conn;
+            }
+            LOG.info("Closing broken admin connection");
+            discard(entry.conn);
+        }
+    }
+
+    /**
+     * Opens connections in background, each connection by its own thread, so
+     * logins to database run in parallel. We open at most as many connections
+     * as pool can hold. Connection which cannot be opened is just logged, it
+     * is opened again on demand.
+     */
+    void warmUp(int count) {
+        final int toOpen = reserve(count);
+        if (toOpen == 0) {
+            return;
+        }
+        LOG.info("Opening {0} admin connections in background", toOpen);
+        final ExecutorService executor = Executors.newFixedThreadPool(toOpen, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DB2PoolWarmUp-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < toOpen; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        final DB2StatementCache conn = openConnection();
+                        conn.markUsed();
+                        giveBack(conn, false);
+                    } catch (RuntimeException e) {
+                        LOG.warn(e, "Cannot open admin connection in background");
+                    }
+                }
+            });
+        }
+        // threads end when connections are opened
+        executor.shutdown();
+    }
+
+    /**
+     * Schedules {@link #maintain()}, it runs twice per idle timeout, but at
+     * most once per second.
+     */
+    private void startMaintenance() {
+        final long period = Math.max(1000L, cfg.getAdminPoolIdleTimeout() * 1000L / 2);
+        maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DB2PoolMaintenance");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        maintenance.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    maintain();
+                } catch (RuntimeException e) {
+                    LOG.warn(e, "Admin connection pool maintenance failed");
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes connections idle longer than idle timeout and opens connections
+     * missing to minimal pool size, e.g. when broken connections were closed.
+     */
+    void maintain() {
+        closeConnections(evictIdle());
+        final int missing;
+        synchronized (this) {
+            missing = closed ? 0 : cfg.getAdminPoolMinSize() - opened;
+        }
+        if (missing > 0) {
+            warmUp(missing);
+        }
+    }
+
+    /**
+     * Reserves places for at most count new connections.
+     *
+     * @return number of reserved places
+     */
+    private synchronized int reserve(int count) {
+        if (closed) {
+            return 0;
+        }
+        final int reserved = Math.max(0, Math.min(count, cfg.getAdminPoolMaxSize() - opened));
+        opened += reserved;
+        return reserved;
+    }
+
+    /**
+     * Takes idle connection or reserves place for new connection, then
+     * returns {@link #RESERVED}. Returns null when pool is full and we should
+     * not wait.
+     */
+    private synchronized IdleConnection takeIdleOrReserve(boolean wait) {
+        while (idle.isEmpty() && opened >= cfg.getAdminPoolMaxSize()) {
+            if (closed) {
+                throw new IllegalStateException("Admin connection pool is closed");
+            }
+            if (!wait) {
+                return null;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException("Interrupted while waiting for admin connection", e);
+            }
+        }
+        if (!idle.isEmpty()) {
+            return idle.removeFirst();
+        }
+        opened++;
+        return RESERVED;
+    }
+
+    /**
+     * Removes connections idle longer than idle timeout, pool keeps minimal
+     * number of connections open.
+     */
+    private synchronized List<DB2StatementCache> evictIdle() {
+        final List<DB2StatementCache> evicted = new ArrayList<DB2StatementCache>();
+        final long oldest = System.currentTimeMillis() - cfg.getAdminPoolIdleTimeout() * 1000L;
+        while (!idle.isEmpty() && opened > cfg.getAdminPoolMinSize()
+                && idle.getLast().since < oldest) {
+            evicted.add(idle.removeLast().conn);
+            opened--;
+        }
+        return evicted;
+    }
+
+    private DB2StatementCache openConnection() {
+        try {
+            final Connection conn = cfg.createAdminConnection();
+            // switch off auto commit, but not when connecting using datasource
+            if (!DB2Configuration.ConnectionType.DATASOURCE.equals(cfg.getConnType())) {
+                conn.setAutoCommit(false);
+            }
+            return new DB2StatementCache(conn);
+        } catch (SQLException e) {
+            unreserve();
+            throw new ConnectorException("Cannot switch off autocommit of admin connection", e);
+        } catch (RuntimeException e) {
+            unreserve();
+            throw e;
+        }
+    }
+
+    private synchronized void unreserve() {
+        opened--;
+        notifyAll();
+    }
+
+    private boolean isValid(DB2StatementCache conn) {
+        try {
+            validator.validate(conn);
+            return true;
+        } catch (RuntimeException e) {
+            LOG.ok(e, "Admin connection is not valid");
+            return false;
+        }
+    }
+
+    /**
+     * Returns leased connection. Operations commit their writes, so we roll
+     * back only when the operation failed and could leave transaction open.
+     * Connection which cannot be rolled back is closed.
+     *
+     * @param rollback
+     *            whether operation failed and transaction must be rolled back
+     */
+    void giveBack(DB2StatementCache conn, boolean rollback) {
+        boolean ok = true;
+        if (rollback) {
+            try {
+                if (!conn.getConnection().getAutoCommit()) {
+                    conn.getConnection().rollback();
+                }
+            } catch (SQLException e) {
+                LOG.info(e, "Closing admin connection which cannot be rolled back");
+                ok = false;
+            }
+        }
+        synchronized (this) {
+            if (ok && !closed) {
+                idle.addFirst(new IdleConnection(conn, System.currentTimeMillis()));
+                notifyAll();
+                return;
+            }
+        }
+        discard(conn);
+    }
+
+    private void discard(DB2StatementCache conn) {
+        unreserve();
+        closeConnection(conn);
+    }
+
+    private static void closeConnections(List<DB2StatementCache> conns) {
+        for (DB2StatementCache conn : conns) {
+            closeConnection(conn);
+        }
+    }
+
+    private static void closeConnection(DB2StatementCache conn) {
+        conn.close();
+        SQLUtil.closeQuietly(conn.getConnection());
+    }
+
+    /**
+     * Returns number of open connections, idle and leased.
+     */
+    synchronized int getOpened() {
+        return opened;
+    }
+
+    /**
+     * Returns number of idle connections.
+     */
+    synchronized int getIdle() {
+        return idle.size();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Checks that admin connection is alive. Connection used successfully within
+ * validation interval is not checked at all. Otherwise we use
+ * {@link Connection#isValid(int)}, which needs no statement, and fall back to
+ * the test SQL when driver does not support it. Any other failure of
+ * {@link Connection#isValid(int)} means the connection is not valid.
+ */
+final class DB2ConnectionValidator {
+    private final static Log LOG = Log.getLog(DB2ConnectionValidator.class);
+    private final DB2Configuration cfg;
+    private final long interval;
+    private final int timeout;
+    /** Whether driver does not support {@link Connection#isValid(int)} */
+    private volatile boolean isValidUnsupported;
+    private volatile String testSQL;
+
+    DB2ConnectionValidator(DB2Configuration cfg) {
+        this.cfg = cfg;
+        this.interval = cfg.getValidationInterval() * 1000L;
+        this.timeout = cfg.getValidationTimeout();
+    }
+
+    /**
+     * Checks connection, connection is marked as used when check passes.
+     *
+     * @throws IllegalStateException
+     *             when connection is not alive
+     */
+    void validate(DB2StatementCache conn) {
+        if (interval > 0 && System.currentTimeMillis() - conn.getLastUsed() < interval) {
+            return;
+        }
+        if (!isValidUnsupported) {
+            try {
+                if (!conn.getConnection().isValid(timeout)) {
+                    throw new IllegalStateException("DB2 connection is not valid");
+                }
+                conn.markUsed();
+                return;
+            } catch (SQLFeatureNotSupportedException e) {
+                LOG.info(e, "Connection.isValid is not supported, using test SQL");
+                isValidUnsupported = true;
+            } catch (SQLException e) {
+                // e.g. connection closed or timeout, driver supports isValid
+                throw new IllegalStateException("DB2 connection is not valid", e);
+            } catch (AbstractMethodError e) {
+                // driver older than JDBC 4
+                LOG.info("Connection.isValid is not implemented, using test SQL");
+                isValidUnsupported = true;
+            }
+        }
+        DB2Specifics.testConnection(conn.getConnection(), getTestSQL(conn.getConnection()));
+        conn.markUsed();
+    }
+
+    /**
+     * Returns test SQL, it is found on first use.
+     *
+     * @see DB2Specifics#findTestSQL(Connection, DB2Configuration)
+     */
+    String getTestSQL(Connection conn) {
+        if (testSQL == null) {
+            testSQL = DB2Specifics.findTestSQL(conn, cfg);
+        }
+        return testSQL;
+    }
+}
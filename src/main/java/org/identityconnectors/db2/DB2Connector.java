@@ -26,21 +26,29 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.dbcommon.DatabaseQueryBuilder;
 import org.identityconnectors.dbcommon.FilterWhereBuilder;
+import org.identityconnectors.dbcommon.SQLParam;
 import org.identityconnectors.dbcommon.SQLUtil;
 import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
@@ -56,21 +64,32 @@ import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
 import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionInfoBuilder;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.objects.ScriptContext;
 import org.identityconnectors.framework.common.objects.SchemaBuilder;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
 import org.identityconnectors.framework.spi.AttributeNormalizer;
 import org.identityconnectors.framework.spi.Configuration;
 import org.identityconnectors.framework.spi.ConnectorClass;
 import org.identityconnectors.framework.spi.PoolableConnector;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
 import org.identityconnectors.framework.spi.operations.AuthenticateOp;
 import org.identityconnectors.framework.spi.operations.CreateOp;
 import org.identityconnectors.framework.spi.operations.DeleteOp;
 import org.identityconnectors.framework.spi.operations.SchemaOp;
+import org.identityconnectors.framework.spi.operations.ScriptOnConnectorOp;
 import org.identityconnectors.framework.spi.operations.SearchOp;
+import org.identityconnectors.framework.spi.operations.SyncOp;
 import org.identityconnectors.framework.spi.operations.TestOp;
 import org.identityconnectors.framework.spi.operations.UpdateAttributeValuesOp;
 
@@ -95,18 +114,28 @@ import org.identityconnectors.framework.spi.operations.UpdateAttributeValuesOp;
  * <li>CreateOp : We store passed user's grants in DB2 system tables, actually
  * we perform 'execute' on passed grants. At least user is granted 'CONNECT ON
  * DATABASE'.</li>
- * <li>SearchOp : Natively we support search by user name. Search by grants is
- * also supported, but in this case we return all users with grants and
- * framework does the filtering.</li>
+ * <li>SearchOp : Natively we support search by user name. Equality and
+ * containsAllValues filters on grants are translated into EXISTS subqueries on
+ * the authority tables, other filters on grants are done by the framework.
+ * Paged search is supported using keyset pagination on user name.</li>
  * <li>DeleteOp : We delete all users's grants</li>
  * <li>UpdateAttributeValuesOp : We update user grants
  * <ul>
- * <li>For update we replace existing grants with passed ones</li>
- * <li>For addAttributeValues we add passed grants to existing grants</li>
- * <li>For removeAttributeValues we revoke passed grants</li>
+ * <li>For update we replace existing grants with passed ones, only grants
+ * that differ are revoked or granted</li>
+ * <li>For addAttributeValues we add passed grants to existing grants, grants
+ * user already has are skipped</li>
+ * <li>For removeAttributeValues we revoke passed grants, grants user does not
+ * have are skipped</li>
  * </ul>
  * </li>
  * <li>TestOp : We test whether connection to DB2 is still alive</li>
+ * <li>SyncOp : DB2 keeps no change log of grants, so we compare digests of
+ * grants of each user with digests stored in the sync token and report users
+ * whose grants changed</li>
+ * <li>ScriptOnConnectorOp : We support bulk create of users and update of
+ * grants of user in one transaction, see
+ * {@link #runScriptOnConnector(ScriptContext, OperationOptions)}</li>
  * </ol>
  *
  * DB2 connector implements AttributeNormalizer to uppercase passed user name,
@@ -123,15 +152,63 @@ import org.identityconnectors.framework.spi.operations.UpdateAttributeValuesOp;
         configurationClass = DB2Configuration.class, messageCatalogPaths = {
             "org/identityconnectors/dbcommon/Messages", "org/identityconnectors/db2/Messages" })
 public class DB2Connector implements AuthenticateOp, SchemaOp, CreateOp,
-        SearchOp<FilterWhereBuilder>, DeleteOp, UpdateAttributeValuesOp, TestOp, PoolableConnector,
-        AttributeNormalizer {
+        SearchOp<FilterWhereBuilder>, DeleteOp, UpdateAttributeValuesOp, TestOp, SyncOp,
+        ScriptOnConnectorOp, PoolableConnector, AttributeNormalizer {
 
     private final static Log LOG = Log.getLog(DB2Connector.class);
-    private final static String USER_EXITS_QUERY =
-            "SELECT GRANTEE FROM SYSIBM.SYSDBAUTH WHERE GRANTEETYPE = 'U' AND CONNECTAUTH = 'Y' AND TRIM(GRANTEE) = ?";
+    /** Grant every user has, user exists when it holds this grant */
+    private final static String CONNECT_GRANT = "CONNECT ON DATABASE";
+    /** Prefix of query finding which of set of users exist */
+    private final static String USERS_EXIST_QUERY =
+            "SELECT GRANTEE FROM SYSIBM.SYSDBAUTH WHERE GRANTEETYPE = 'U' AND CONNECTAUTH = 'Y' AND GRANTEE IN (";
+    /** Language of scripts run on connector */
+    static final String SCRIPT_LANGUAGE = "DB2";
+    /** Script creating more users at once */
+    static final String BULK_CREATE_SCRIPT = "bulkCreate";
+    /** Argument of bulk create script, map of user name to its grants */
+    static final String SCRIPT_ARG_USERS = "users";
+    /** Key of bulk create result holding list of created users */
+    static final String BULK_RESULT_SUCCEEDED = "succeeded";
+    /** Key of bulk create result holding map of failed user to error message */
+    static final String BULK_RESULT_FAILED = "failed";
+    /** Script adding and removing grants of one user in one transaction */
+    static final String UPDATE_DELTA_SCRIPT = "updateDelta";
+    /** Argument of update delta script, name of updated user */
+    static final String SCRIPT_ARG_UID = "uid";
+    /** Argument of update delta script, grants to add */
+    static final String SCRIPT_ARG_VALUES_TO_ADD = "valuesToAdd";
+    /** Argument of update delta script, grants to remove */
+    static final String SCRIPT_ARG_VALUES_TO_REMOVE = "valuesToRemove";
+    /**
+     * Search query, table is aliased as U, so grants filters can correlate
+     * EXISTS subqueries on U.GRANTEE. See {@link DB2FilterTranslator}
+     */
     private final static String ALL_USER_QUERY =
-            "SELECT GRANTEE FROM SYSIBM.SYSDBAUTH WHERE GRANTEETYPE = 'U' AND CONNECTAUTH = 'Y'";
+            "SELECT U.GRANTEE FROM SYSIBM.SYSDBAUTH U WHERE U.GRANTEETYPE = 'U' AND U.CONNECTAUTH = 'Y'";
+    /** Number of users we read authorities for at once during search. */
+    private final static int BULK_READ_PAGE_SIZE = 500;
+    /** Number of sync deltas after which we encode new token. */
+    static final int SYNC_CHECKPOINT_DELTAS = 1000;
+    /** Admin connection, leased from pool for each operation when pool is on */
     private Connection adminConn;
+    /** Prepared catalog queries of admin connection */
+    private DB2StatementCache statements;
+    /** Pool of admin connections, null when pool is off */
+    private DB2ConnectionPool pool;
+    /** Number of nested leases of admin connection */
+    private int leases;
+    /** Whether operation using leased admin connection failed */
+    private boolean leaseFailed;
+    /** Checks admin connection of instance when pool is off */
+    private DB2ConnectionValidator validator;
+    /** Reader of authorities used during search when parallel reading is on */
+    private DB2ParallelAuthorityReader parallelReader;
+    /** Cache of authorities read during search, null when caching is off */
+    private DB2AuthorityCache authorityCache;
+    /** Coalescer of updates of the same user, null when coalescing is off */
+    private DB2UpdateCoalescer coalescer;
+    /** Committer of writes, null when group commit is off */
+    private DB2GroupCommitter groupCommitter;
     private DB2Configuration cfg;
     static final String USER_AUTH_GRANTS = "grants";
     private String testSQL;
@@ -196,6 +273,9 @@ public class DB2Connector implements AuthenticateOp, SchemaOp, CreateOp,
         // is supported.
         SchemaBuilder schemaBld = new SchemaBuilder(getClass());
         schemaBld.defineObjectClass(ObjectClass.ACCOUNT_NAME, attrInfoSet);
+        schemaBld.defineOperationOption(OperationOptionInfoBuilder.buildPageSize(), SearchOp.class);
+        schemaBld.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsCookie(),
+                SearchOp.class);
         return schemaBld.build();
     }
 
@@ -203,25 +283,133 @@ public class DB2Connector implements AuthenticateOp, SchemaOp, CreateOp,
         if (testSQL != null) {
             return testSQL;
         }
-        testSQL = DB2Specifics.findTestSQL(adminConn);
+        testSQL = DB2Specifics.findTestSQL(adminConn, cfg);
         return testSQL;
     }
 
+    /**
+     * Checks admin connection. Connection used successfully within validation
+     * interval is not checked, see {@link DB2ConnectionValidator}.
+     */
     public void checkAlive() {
-        DB2Specifics.testConnection(adminConn, getTestSQL());
+        if (pool != null) {
+            // pool checks idle connection before it is leased
+            leaseConnection();
+            releaseConnection();
+            return;
+        }
+        if (adminConn == null) {
+            // lazy connect, connection is opened by first operation
+            return;
+        }
+        validator.validate(statements);
     }
 
     public void dispose() {
+        if (authorityCache != null) {
+            authorityCache.logStatistics();
+            authorityCache.release();
+            authorityCache = null;
+        }
+        if (parallelReader != null) {
+            parallelReader.release();
+            parallelReader = null;
+        }
+        if (groupCommitter != null) {
+            groupCommitter.release();
+            groupCommitter = null;
+        }
+        if (coalescer != null) {
+            coalescer.release();
+            coalescer = null;
+        }
+        if (pool != null) {
+            pool.release();
+            pool = null;
+            return;
+        }
+        if (statements != null) {
+            statements.close();
+        }
         SQLUtil.closeQuietly(adminConn);
     }
 
+    /**
+     * Leases admin connection from the pool for the operation. Without pool
+     * connector instance keeps its own admin connection all the time, with
+     * lazy connect it is opened by the first operation.
+     */
+    private void leaseConnection() {
+        if (leases == 0) {
+            if (pool != null) {
+                statements = pool.borrow();
+                adminConn = statements.getConnection();
+            } else if (adminConn == null) {
+                openAdminConnection();
+            }
+            leaseFailed = false;
+        }
+        leases++;
+    }
+
+    /**
+     * Marks connection as used when operation succeeded and returns leased
+     * admin connection to the pool.
+     */
+    private void releaseConnection() {
+        if (--leases > 0) {
+            return;
+        }
+        if (!leaseFailed && statements != null) {
+            statements.markUsed();
+        }
+        if (pool == null) {
+            return;
+        }
+        final DB2StatementCache leased = statements;
+        statements = null;
+        adminConn = null;
+        pool.giveBack(leased, leaseFailed);
+    }
+
     public DB2Configuration getConfiguration() {
         return cfg;
     }
 
     public void init(Configuration cfg) {
         this.cfg = (DB2Configuration) cfg;
+        if (this.cfg.getAdminPoolMaxSize() > 0) {
+            this.pool = DB2ConnectionPool.acquire(this.cfg);
+        } else {
+            this.validator = new DB2ConnectionValidator(this.cfg);
+            if (!this.cfg.isLazyConnect()) {
+                openAdminConnection();
+            }
+        }
+        if (this.cfg.getAuthorityReadParallelism() > 1) {
+            this.parallelReader = DB2ParallelAuthorityReader.acquire(this.cfg);
+        }
+        if (this.cfg.getAuthorityCacheTTL() > 0) {
+            final long ttl = this.cfg.getAuthorityCacheTTL() * 1000L;
+            final int maxSize = this.cfg.getAuthorityCacheMaxSize();
+            this.authorityCache =
+                    this.cfg.isAuthorityCacheShared() ? DB2AuthorityCache.acquire(this.cfg
+                            .getConfigurationKey(), ttl, maxSize) : new DB2AuthorityCache(ttl,
+                            maxSize);
+        }
+        if (this.cfg.getUpdateCoalesceWindow() > 0) {
+            this.coalescer =
+                    DB2UpdateCoalescer.acquire(this.cfg.getConfigurationKey(), this.cfg
+                            .getUpdateCoalesceWindow());
+        }
+        if (this.cfg.getGroupCommitInterval() > 0) {
+            this.groupCommitter = DB2GroupCommitter.acquire(this.cfg);
+        }
+    }
+
+    private void openAdminConnection() {
         this.adminConn = createAdminConnection();
+        this.statements = new DB2StatementCache(adminConn);
     }
 
     private Connection createAdminConnection() {
@@ -244,15 +432,8 @@ public class DB2Connector implements AuthenticateOp, SchemaOp, CreateOp,
         return conn;
     }
 
-    List<String> buildAuthorityAttributeValue(String userName) {
-        DB2AuthorityReader dB2AuthorityReader = new DB2AuthorityReader(adminConn);
-        Collection<DB2Authority> allAuths = null;
-        try {
-            allAuths = dB2AuthorityReader.readAllAuthorities(userName);
-        } catch (SQLException e) {
-            throw new ConnectorException("Error reading db2 authorities", e);
-        }
-        List<String> result = new ArrayList<String>(2);
+    private List<String> buildAuthorityAttributeValue(Collection<DB2Authority> allAuths) {
+        List<String> result = new ArrayList<String>(allAuths.size());
         for (DB2Authority authority : allAuths) {
             final DB2AuthorityTable authorityTable =
                     DB2Specifics.authType2DB2AuthorityTable(authority.authorityType);
@@ -270,62 +451,195 @@ public class DB2Connector implements AuthenticateOp, SchemaOp, CreateOp,
     /**
      * Executes search using DB2 system table. We support searching by UID/Name
      * and grants. When searching by uid/name we use
-     * <code>SYSIBM.SYSDBAUTH table</code> to execute search. We always include
-     * grants attribute by reading all grants from system tables. Then when
-     * searching by grants, we will return now all users and framework will
-     * filter users that have filtered grants.
+     * <code>SYSIBM.SYSDBAUTH table</code> to execute search. By default we
+     * include grants attribute by reading all grants from system tables. When
+     * searching by grants, we restrict users using EXISTS subqueries when
+     * possible and framework does the final filtering. <br/>
+     * Grants are read in bulk for pages of found users, so each authority table
+     * is queried once per page, not once per user. Grants are not read at all
+     * when attributesToGet option is set and does not contain grants. When
+     * authority cache is configured, only users not found in the cache are
+     * read. <br/>
+     * Paged search is supported using pageSize and pagedResultsCookie options.
+     * Users are ordered by trimmed GRANTEE and the cookie is the name of last
+     * user returned in the page.
      */
     public void executeQuery(ObjectClass oclass, FilterWhereBuilder where, ResultsHandler handler,
             OperationOptions options) {
-        checkObjectClass(oclass);
-        // Read users from SYSIBM.SYSDBAUTH table
-        // DB2 stores users in UPPERCASE , we must do UPPER(TRIM(GRANTEE)) =
-        // upper('john')
-        // Database query builder will create SQL query.
-        // if where == null then all users are returned
-        final DatabaseQueryBuilder query = new DatabaseQueryBuilder(ALL_USER_QUERY);
-        query.setWhere(where);
-        final String sql = query.getSQL();
-        LOG.info("Executing search query : {0}", sql);
-        ResultSet result = null;
-        PreparedStatement statement = null;
+        leaseConnection();
         try {
-            statement = adminConn.prepareStatement(sql);
-            SQLUtil.setParams(statement, query.getParams());
-            result = statement.executeQuery();
-            while (result.next()) {
-                ConnectorObjectBuilder bld = new ConnectorObjectBuilder();
-
-                final String userName = result.getString("GRANTEE").trim();
-                // if(options.getAttributesToGet() != null &&
-                // Arrays.asList(options.getAttributesToGet()).contains(USER_AUTH_GRANTS)){
-                List<String> authStrings = buildAuthorityAttributeValue(userName);
-                bld.addAttribute(USER_AUTH_GRANTS, authStrings);
-                // }
-
-                bld.setUid(new Uid(userName));
-                bld.setName(userName);
-                // No other attributes are now supported.
-                // Password can be encoded and it is not provided as an
-                // attribute
-
-                // only deals w/ accounts..
-                bld.setObjectClass(ObjectClass.ACCOUNT);
-
-                // create the connector object..
-                ConnectorObject ret = bld.build();
-                if (!handler.handle(ret)) {
-                    break;
+            checkObjectClass(oclass);
+            // Read users from SYSIBM.SYSDBAUTH table
+            // DB2 stores users in UPPERCASE , we must do UPPER(TRIM(GRANTEE)) =
+            // upper('john')
+            // Database query builder will create SQL query.
+            // if where == null then all users are returned
+            // When paging, we use keyset pagination on trimmed GRANTEE. Cookie is
+            // the last user name of previous page.
+            final Integer pageSize = options != null ? options.getPageSize() : null;
+            final String cookie = options != null ? options.getPagedResultsCookie() : null;
+            final boolean paged = pageSize != null && pageSize > 0;
+            final List<SQLParam> params = new ArrayList<SQLParam>();
+            String selectFrom = ALL_USER_QUERY;
+            if (StringUtil.isNotBlank(cookie)) {
+                selectFrom += " AND TRIM(GRANTEE) > ?";
+                params.add(new SQLParam("GRANTEE", cookie));
+            }
+            final DatabaseQueryBuilder query = new DatabaseQueryBuilder(selectFrom);
+            query.setWhere(where);
+            params.addAll(query.getParams());
+            String sql = query.getSQL();
+            if (paged) {
+                // Read one more row to find out whether there is next page
+                sql += " ORDER BY TRIM(GRANTEE) FETCH FIRST " + (pageSize + 1) + " ROWS ONLY";
+            }
+            LOG.info("Executing search query : {0}", sql);
+            ResultSet result = null;
+            PreparedStatement statement = null;
+            // We first read just user names and close the cursor, authorities
+            // are then read in bulk per page of users
+            final List<String> userNames = new ArrayList<String>();
+            try {
+                statement = statements.prepareQuery(sql);
+                SQLUtil.setParams(statement, params);
+                result = statement.executeQuery();
+                while (result.next()) {
+                    userNames.add(result.getString("GRANTEE").trim());
                 }
+            } catch (SQLException e) {
+                String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
+                throw new ConnectorException(cfg.getConnectorMessages().format(
+                        DB2Messages.SEARCH_FAILED, null, detailMsg), e);
+            } finally {
+                SQLUtil.closeQuietly(result);
             }
-        } catch (SQLException e) {
-            String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
-            throw new ConnectorException(cfg.getConnectorMessages().format(
-                    DB2Messages.SEARCH_FAILED, null, detailMsg), e);
+            String nextCookie = null;
+            if (paged && userNames.size() > pageSize) {
+                userNames.remove(userNames.size() - 1);
+                nextCookie = userNames.get(userNames.size() - 1);
+            }
+            final boolean readGrants = isGrantsRequested(options);
+            for (int from = 0; from < userNames.size(); from += BULK_READ_PAGE_SIZE) {
+                final List<String> page =
+                        userNames.subList(from, Math.min(from + BULK_READ_PAGE_SIZE, userNames
+                                .size()));
+                Map<String, Collection<DB2Authority>> pageAuths = null;
+                if (readGrants) {
+                    try {
+                        pageAuths = readAllAuthorities(page);
+                    } catch (SQLException e) {
+                        String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
+                        throw new ConnectorException(cfg.getConnectorMessages().format(
+                                DB2Messages.SEARCH_FAILED, null, detailMsg), e);
+                    }
+                }
+                for (String userName : page) {
+                    List<String> authStrings = null;
+                    if (readGrants) {
+                        authStrings =
+                                buildAuthorityAttributeValue(pageAuths.get(userName.toUpperCase()));
+                    }
+                    if (!handler.handle(buildConnectorObject(userName, authStrings))) {
+                        return;
+                    }
+                }
+            }
+            if (handler instanceof SearchResultsHandler) {
+                // Remaining number of results is not known without counting
+                ((SearchResultsHandler) handler).handleResult(new SearchResult(nextCookie, -1));
+            }
+        } catch (RuntimeException e) {
+            leaseFailed = true;
+            throw e;
         } finally {
-            SQLUtil.closeQuietly(result);
-            SQLUtil.closeQuietly(statement);
+            releaseConnection();
+        }
+    }
+
+    /**
+     * Builds account object, grants are not added when null.
+     */
+    private static ConnectorObject buildConnectorObject(String userName, List<String> grants) {
+        ConnectorObjectBuilder bld = new ConnectorObjectBuilder();
+        if (grants != null) {
+            bld.addAttribute(USER_AUTH_GRANTS, grants);
+        }
+
+        bld.setUid(new Uid(userName));
+        bld.setName(userName);
+        // No other attributes are now supported.
+        // Password can be encoded and it is not provided as an
+        // attribute
+
+        // only deals w/ accounts..
+        bld.setObjectClass(ObjectClass.ACCOUNT);
+
+        // create the connector object..
+        return bld.build();
+    }
+
+    /**
+     * Reads authorities of passed users, users with authorities in the cache
+     * are not read from database.
+     */
+    private Map<String, Collection<DB2Authority>> readAllAuthorities(List<String> users)
+            throws SQLException {
+        if (authorityCache == null) {
+            return readAllAuthoritiesFromDatabase(users);
+        }
+        final Map<String, Collection<DB2Authority>> allAuths =
+                DB2AuthorityReader.emptyAuthorities(users);
+        final List<String> notCached = new ArrayList<String>();
+        for (Map.Entry<String, Collection<DB2Authority>> entry : allAuths.entrySet()) {
+            final Collection<DB2Authority> cached = authorityCache.get(entry.getKey());
+            if (cached != null) {
+                entry.setValue(cached);
+            } else {
+                notCached.add(entry.getKey());
+            }
+        }
+        if (!notCached.isEmpty()) {
+            final long stamp = authorityCache.stamp();
+            final Map<String, Collection<DB2Authority>> read =
+                    readAllAuthoritiesFromDatabase(notCached);
+            authorityCache.putAll(read, stamp);
+            allAuths.putAll(read);
         }
+        return allAuths;
+    }
+
+    private Map<String, Collection<DB2Authority>> readAllAuthoritiesFromDatabase(
+            List<String> users) throws SQLException {
+        if (parallelReader != null) {
+            return parallelReader.readAllAuthorities(users, statements);
+        }
+        return new DB2AuthorityReader(statements).readAllAuthorities(users);
+    }
+
+    /**
+     * Removes authorities of user from cache, called on each write to the
+     * user.
+     */
+    private void invalidateAuthorities(String user) {
+        if (authorityCache != null) {
+            authorityCache.invalidate(user);
+        }
+    }
+
+    /**
+     * Grants are returned by default, so we skip reading them only when caller
+     * explicitly asks for attributes without grants.
+     */
+    private boolean isGrantsRequested(OperationOptions options) {
+        if (options == null || options.getAttributesToGet() == null) {
+            return true;
+        }
+        for (String attrName : options.getAttributesToGet()) {
+            if (USER_AUTH_GRANTS.equalsIgnoreCase(attrName)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void checkObjectClass(ObjectClass oclass) {
@@ -343,29 +657,396 @@ public class DB2Connector implements AuthenticateOp, SchemaOp, CreateOp,
      * DB2 system tables. Then we store passed user grants using grant
      * statement.
      */
-    public Uid create(ObjectClass oclass, Set<Attribute> attrs, OperationOptions options) {
-        checkObjectClass(oclass);
-        checkCreateAttributes(attrs);
-        Name user = AttributeUtil.getNameFromAttributes(attrs);
-        if (user == null || StringUtil.isBlank(user.getNameValue())) {
+    public Uid create(ObjectClass oclass, final Set<Attribute> attrs, OperationOptions options) {
+        leaseConnection();
+        try {
+            checkObjectClass(oclass);
+            checkCreateAttributes(attrs);
+            Name user = AttributeUtil.getNameFromAttributes(attrs);
+            if (user == null || StringUtil.isBlank(user.getNameValue())) {
+                throw new IllegalArgumentException(cfg.getConnectorMessages().format(
+                        DB2Messages.NAME_IS_NULL_OR_EMPTY, null));
+            }
+            final String userName = user.getNameValue();
+            LOG.info("Creating user : {0}", userName);
+            checkDB2Validity(userName);
+            try {
+                commitWrite(new DB2GroupCommitter.Write() {
+                    public void plan(DB2StatementCache conn, DB2StatementBatch batch)
+                            throws SQLException {
+                        final Collection<DB2Authority> current =
+                                readCurrentAuthorities(conn, userName);
+                        checkUserNotExist(userName, current);
+                        updateAuthority(userName, attrs, UpdateType.ADD, current, batch);
+                    }
+                });
+                LOG.info("User created : {0}", userName);
+            } catch (AlreadyExistsException e) {
+                SQLUtil.rollbackQuietly(adminConn);
+                throw e;
+            } catch (Exception e) {
+                SQLUtil.rollbackQuietly(adminConn);
+                String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
+                throw new ConnectorException(cfg.getConnectorMessages().format(
+                        DB2Messages.CREATE_OF_USER_FAILED, null, userName, detailMsg), e);
+            } finally {
+                invalidateAuthorities(userName);
+            }
+            return new Uid(userName);
+        } catch (RuntimeException e) {
+            leaseFailed = true;
+            throw e;
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /**
+     * Runs connector command. Script language must be {@value #SCRIPT_LANGUAGE}
+     * and script text is name of the command. We support
+     * <ul>
+     * <li>{@value #BULK_CREATE_SCRIPT} : Creates more users at once. Argument
+     * {@value #SCRIPT_ARG_USERS} is map of user name to collection of its
+     * grants. Users are validated up front and are committed in groups of
+     * <code>bulkCommitInterval</code> users. Result is a map with list of
+     * created users under {@value #BULK_RESULT_SUCCEEDED} key and map of
+     * failed user to error message under {@value #BULK_RESULT_FAILED} key.
+     * User with blank name fails under its position in the map like '[2]',
+     * user passed again with name differing only by case fails under the
+     * name as passed.</li>
+     * <li>{@value #UPDATE_DELTA_SCRIPT} : Removes grants passed in
+     * {@value #SCRIPT_ARG_VALUES_TO_REMOVE} argument and adds grants passed in
+     * {@value #SCRIPT_ARG_VALUES_TO_ADD} argument to user passed in
+     * {@value #SCRIPT_ARG_UID} argument in one transaction. Result is uid of
+     * the user.</li>
+     * </ul>
+     */
+    public Object runScriptOnConnector(ScriptContext request, OperationOptions options) {
+        final boolean ourScript = SCRIPT_LANGUAGE.equalsIgnoreCase(request.getScriptLanguage());
+        if (ourScript && coalescer != null && UPDATE_DELTA_SCRIPT.equals(request.getScriptText())) {
+            // connection is leased by applier after the window
+            return updateDelta(request.getScriptArguments());
+        }
+        leaseConnection();
+        try {
+            if (ourScript) {
+                final Map<String, Object> args = request.getScriptArguments();
+                if (BULK_CREATE_SCRIPT.equals(request.getScriptText())) {
+                    return bulkCreate(args.get(SCRIPT_ARG_USERS));
+                }
+                if (UPDATE_DELTA_SCRIPT.equals(request.getScriptText())) {
+                    return updateDelta(args);
+                }
+            }
+            throw new IllegalArgumentException(cfg.getConnectorMessages().format(
+                    DB2Messages.SCRIPT_NOT_SUPPORTED, null, request.getScriptText(),
+                    request.getScriptLanguage()));
+        } catch (RuntimeException e) {
+            leaseFailed = true;
+            throw e;
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /**
+     * Removes and adds grants of user in one transaction. The framework we
+     * build on has no UpdateDeltaOp, so this is exposed as script. When
+     * coalescing is on, delta is merged with other updates of the user.
+     */
+    private String updateDelta(Map<String, Object> args) {
+        final Object uid = args.get(SCRIPT_ARG_UID);
+        if (uid == null || StringUtil.isBlank(uid.toString())) {
             throw new IllegalArgumentException(cfg.getConnectorMessages().format(
-                    DB2Messages.NAME_IS_NULL_OR_EMPTY, null));
+                    DB2Messages.UPDATE_UID_CANNOT_BE_NULL_OR_EMPTY, null));
+        }
+        final String user = uid.toString().trim().toUpperCase();
+        final Collection<String> valuesToAdd = toGrants(args.get(SCRIPT_ARG_VALUES_TO_ADD));
+        final Collection<String> valuesToRemove =
+                toGrants(args.get(SCRIPT_ARG_VALUES_TO_REMOVE));
+        if (coalescer != null) {
+            submitUpdate(user, null, valuesToAdd, valuesToRemove);
+        } else {
+            applyDelta(user, null, valuesToAdd, valuesToRemove);
+        }
+        return user;
+    }
+
+    /**
+     * Submits update of user to the coalescer. Merged updates are applied by
+     * the connector instance which submitted first of them. Caller must not
+     * hold leased connection, applier leases it after the window, so pooled
+     * connection is not held while updates are merged.
+     */
+    private void submitUpdate(String user, Collection<String> replace,
+            Collection<String> valuesToAdd, Collection<String> valuesToRemove) {
+        coalescer.submit(user, replace, valuesToAdd, valuesToRemove,
+                new DB2UpdateCoalescer.Applier() {
+                    public void apply(String user, Collection<String> replace,
+                            Collection<String> add, Collection<String> remove) {
+                        leaseConnection();
+                        try {
+                            applyDelta(user, replace, add, remove);
+                        } catch (RuntimeException e) {
+                            leaseFailed = true;
+                            throw e;
+                        } finally {
+                            releaseConnection();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Replaces grants of user or removes and adds grants of user in one
+     * transaction. We read authorities of user once, they tell also whether
+     * user exists, then revoke grants user holds and grant grants user does
+     * not hold in one batch and commit once.
+     *
+     * @param replace
+     *            grants replacing all grants of user, null when we only
+     *            remove and add grants
+     */
+    private void applyDelta(final String user, final Collection<String> replace,
+            final Collection<String> valuesToAdd, final Collection<String> valuesToRemove) {
+        LOG.info("Update delta of user : {0}", user);
+        removeMandatoryRevoke(valuesToRemove);
+        if (replace != null) {
+            addMandatoryConnect(replace);
         }
-        final String userName = user.getNameValue();
-        LOG.info("Creating user : {0}", userName);
-        checkUserNotExist(userName);
-        checkDB2Validity(userName);
         try {
-            updateAuthority(userName, attrs, UpdateType.ADD);
-            adminConn.commit();
-            LOG.info("User created : {0}", userName);
+            commitWrite(new DB2GroupCommitter.Write() {
+                public void plan(DB2StatementCache conn, DB2StatementBatch batch)
+                        throws SQLException {
+                    final Collection<DB2Authority> current = readCurrentAuthorities(conn, user);
+                    checkUserExist(user, current);
+                    final Set<String> held = heldGrants(current);
+                    if (replace != null) {
+                        replaceGrants(replace, user, current, batch);
+                    }
+                    executeRevokes(DB2GrantPlanner.filterGrants(valuesToRemove, held, true),
+                            user, batch);
+                    executeGrants(DB2GrantPlanner.filterGrants(valuesToAdd, held, false), user,
+                            batch);
+                }
+            });
+            LOG.info("User updated : {0}", user);
+        } catch (UnknownUidException e) {
+            SQLUtil.rollbackQuietly(adminConn);
+            throw e;
         } catch (Exception e) {
             SQLUtil.rollbackQuietly(adminConn);
             String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
             throw new ConnectorException(cfg.getConnectorMessages().format(
-                    DB2Messages.CREATE_OF_USER_FAILED, null, userName, detailMsg), e);
+                    DB2Messages.UPDATE_OF_USER_FAILED, null, user, detailMsg), e);
+        } finally {
+            invalidateAuthorities(user);
+        }
+    }
+
+    /**
+     * Creates passed users. Users with invalid name or already existing users
+     * are reported as failed without touching database. Other users are
+     * created in groups of <code>bulkCommitInterval</code> users, each group
+     * is committed at once. Same privileges of users of the group are granted
+     * by one statement. When the group fails, it is rolled back and its users
+     * are created one by one to find the failing users.
+     */
+    private Map<String, Object> bulkCreate(Object usersArg) {
+        if (!(usersArg instanceof Map<?, ?>)) {
+            throw new IllegalArgumentException(cfg.getConnectorMessages().format(
+                    DB2Messages.SCRIPT_ARGUMENT_INVALID, null, SCRIPT_ARG_USERS, usersArg));
+        }
+        final List<String> succeeded = new ArrayList<String>();
+        final Map<String, String> failed = new LinkedHashMap<String, String>();
+        final Map<String, Collection<String>> users = checkBulkUsers((Map<?, ?>) usersArg, failed);
+        try {
+            for (String existing : findExistingUsers(users.keySet())) {
+                users.remove(existing);
+                failed.put(existing, cfg.getConnectorMessages().format(
+                        DB2Messages.USER_ALREADY_EXISTS, null, existing));
+            }
+        } catch (SQLException e) {
+            String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
+            throw new ConnectorException(cfg.getConnectorMessages().format(
+                    DB2Messages.SEARCH_FAILED, null, detailMsg), e);
+        }
+        LOG.info("Bulk create of {0} users", users.size());
+        final List<String> names = new ArrayList<String>(users.keySet());
+        final int interval = cfg.getBulkCommitInterval();
+        for (int from = 0; from < names.size(); from += interval) {
+            final List<String> group = names.subList(from, Math.min(from + interval, names.size()));
+            try {
+                createGroup(group, users);
+                adminConn.commit();
+                succeeded.addAll(group);
+            } catch (Exception e) {
+                // Some user of the group failed, find it creating users one by
+                // one
+                SQLUtil.rollbackQuietly(adminConn);
+                LOG.info(e, "Bulk create of group failed, creating users one by one");
+                createOneByOne(group, users, succeeded, failed);
+            } finally {
+                for (String userName : group) {
+                    invalidateAuthorities(userName);
+                }
+            }
+        }
+        LOG.info("Bulk create finished, created : {0}, failed : {1}", succeeded.size(), failed
+                .size());
+        final Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put(BULK_RESULT_SUCCEEDED, succeeded);
+        result.put(BULK_RESULT_FAILED, failed);
+        return result;
+    }
+
+    /**
+     * Grants privileges to group of new users. Same privileges of more users
+     * are granted by one statement.
+     */
+    /**
+     * Validates users of bulk create. User with null or blank name fails
+     * under key '[position]', position is index of the entry in passed map.
+     * User whose name differs from name of some previous user only by case or
+     * surrounding spaces fails under name as it was passed. Other users that
+     * fail validation fail under their upper case name.
+     *
+     * @return valid users keyed by upper case name, in order they were passed
+     */
+    Map<String, Collection<String>> checkBulkUsers(Map<?, ?> usersArg, Map<String, String> failed) {
+        final Map<String, Collection<String>> users =
+                new LinkedHashMap<String, Collection<String>>();
+        final Set<String> seen = new HashSet<String>();
+        int position = 0;
+        for (Map.Entry<?, ?> entry : usersArg.entrySet()) {
+            final String name = entry.getKey() != null ? entry.getKey().toString() : null;
+            final String userName = name != null ? name.trim().toUpperCase() : null;
+            String failedKey = userName;
+            try {
+                if (StringUtil.isBlank(userName)) {
+                    failedKey = "[" + position + "]";
+                    throw new IllegalArgumentException(cfg.getConnectorMessages().format(
+                            DB2Messages.NAME_IS_NULL_OR_EMPTY, null));
+                }
+                if (!seen.add(userName)) {
+                    failedKey = name;
+                    throw new IllegalArgumentException(cfg.getConnectorMessages().format(
+                            DB2Messages.USER_DUPLICATE, null, name, userName));
+                }
+                checkDB2Validity(userName);
+                users.put(userName, toGrants(entry.getValue()));
+            } catch (RuntimeException e) {
+                failed.put(failedKey, e.getMessage());
+            }
+            position++;
         }
-        return new Uid(userName);
+        return users;
+    }
+
+    private void createGroup(List<String> group, Map<String, Collection<String>> users)
+            throws SQLException {
+        final Map<String, Collection<String>> grants =
+                new LinkedHashMap<String, Collection<String>>();
+        for (String userName : group) {
+            final Collection<String> userGrants = new ArrayList<String>(users.get(userName));
+            addMandatoryConnect(userGrants);
+            grants.put(userName, userGrants);
+        }
+        final DB2StatementBatch batch = createBatch();
+        try {
+            for (String sql : DB2GrantPlanner.planSharedGrants(grants)) {
+                batch.add(sql);
+            }
+            batch.flush();
+        } finally {
+            batch.close();
+        }
+    }
+
+    /**
+     * Creates group of users one by one and commits them at once. When user
+     * fails, uncommitted users are rolled back and created again without the
+     * failed user.
+     */
+    private void createOneByOne(List<String> group, Map<String, Collection<String>> users,
+            List<String> succeeded, Map<String, String> failed) {
+        final LinkedList<String> work = new LinkedList<String>(group);
+        final List<String> uncommitted = new ArrayList<String>();
+        while (!work.isEmpty()) {
+            final String userName = work.removeFirst();
+            final DB2StatementBatch batch = createBatch();
+            try {
+                // users were checked by one query up front, we do not read them again
+                updateAuthority(userName, Collections.singleton(AttributeBuilder.build(
+                        USER_AUTH_GRANTS, users.get(userName))), UpdateType.ADD, Collections
+                        .<DB2Authority> emptyList(), batch);
+                batch.flush();
+                uncommitted.add(userName);
+            } catch (Exception e) {
+                SQLUtil.rollbackQuietly(adminConn);
+                String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
+                failed.put(userName, cfg.getConnectorMessages().format(
+                        DB2Messages.CREATE_OF_USER_FAILED, null, userName, detailMsg));
+                work.addAll(0, uncommitted);
+                uncommitted.clear();
+            } finally {
+                batch.close();
+            }
+        }
+        try {
+            adminConn.commit();
+            succeeded.addAll(uncommitted);
+        } catch (SQLException e) {
+            SQLUtil.rollbackQuietly(adminConn);
+            String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
+            for (String userName : uncommitted) {
+                failed.put(userName, cfg.getConnectorMessages().format(
+                        DB2Messages.CREATE_OF_USER_FAILED, null, userName, detailMsg));
+            }
+        }
+    }
+
+    private Collection<String> toGrants(Object value) {
+        final List<String> grants = new ArrayList<String>();
+        if (value instanceof Collection<?>) {
+            for (Object grant : (Collection<?>) value) {
+                grants.add(grant.toString().toUpperCase());
+            }
+        } else if (value != null) {
+            grants.add(value.toString().toUpperCase());
+        }
+        return grants;
+    }
+
+    /**
+     * Returns those of passed uppercased users that already exist.
+     */
+    private Set<String> findExistingUsers(Collection<String> users) throws SQLException {
+        final Set<String> existing = new HashSet<String>();
+        final List<String> all = new ArrayList<String>(users);
+        for (int from = 0; from < all.size(); from += BULK_READ_PAGE_SIZE) {
+            final List<String> page =
+                    all.subList(from, Math.min(from + BULK_READ_PAGE_SIZE, all.size()));
+            final int params = DB2AuthorityReader.bulkParameters(page.size());
+            final StringBuilder sql = new StringBuilder(USERS_EXIST_QUERY);
+            for (int i = 0; i < params; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            ResultSet rs = null;
+            try {
+                final PreparedStatement st = statements.prepareQuery(sql.append(')').toString());
+                for (int i = 0; i < params; i++) {
+                    st.setString(i + 1, page.get(Math.min(i, page.size() - 1)));
+                }
+                rs = st.executeQuery();
+                while (rs.next()) {
+                    existing.add(rs.getString("GRANTEE").trim());
+                }
+            } finally {
+                SQLUtil.closeQuietly(rs);
+            }
+        }
+        return existing;
     }
 
     private void checkCreateAttributes(Set<Attribute> attrs) {
@@ -390,84 +1071,141 @@ public class DB2Connector implements AuthenticateOp, SchemaOp, CreateOp,
         }
     }
 
-    private void checkUserNotExist(String user) {
-        boolean userExist = userExist(user);
-        if (userExist) {
+    private void checkUserNotExist(String user, Collection<DB2Authority> current) {
+        if (userExist(current)) {
             throw new AlreadyExistsException(cfg.getConnectorMessages().format(
                     DB2Messages.USER_ALREADY_EXISTS, null, user));
         }
     }
 
-    private void checkUserExist(String user) {
-        boolean userExist = userExist(user);
-        if (!userExist) {
+    private void checkUserExist(String user, Collection<DB2Authority> current) {
+        if (!userExist(current)) {
             throw new UnknownUidException(new Uid(user), ObjectClass.ACCOUNT);
         }
     }
 
-    private boolean userExist(String user) {
-        PreparedStatement st = null;
-        ResultSet rs = null;
-        try {
-            st = adminConn.prepareStatement(USER_EXITS_QUERY);
-            st.setString(1, user.toUpperCase());
-            rs = st.executeQuery();
-            return rs.next();
-        } catch (SQLException e) {
-            throw new ConnectorException("Cannot test whether user exist", e);
-        } finally {
-            SQLUtil.closeQuietly(rs);
-            SQLUtil.closeQuietly(st);
+    /**
+     * User exists when it holds {@value #CONNECT_GRANT}, same as when we find
+     * it in SYSDBAUTH with CONNECTAUTH, so we need no separate query.
+     */
+    private static boolean userExist(Collection<DB2Authority> current) {
+        for (DB2Authority auth : current) {
+            if (DB2Specifics.AUTH_TYPE_DATABASE.equals(auth.authorityType)
+                    && "CONNECT".equals(auth.authorityFunction)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    /**
+     * Reads current authorities of user on write paths. We always read them
+     * from database, not from authority cache, as we decide existence of user
+     * and grants to apply from them. They are read on the connection which
+     * executes the write, see {@link #commitWrite(DB2GroupCommitter.Write)}.
+     */
+    private static Collection<DB2Authority> readCurrentAuthorities(DB2StatementCache conn,
+            String user) throws SQLException {
+        return new DB2AuthorityReader(conn).readAllAuthorities(user);
     }
 
     /**
      * Applies resources grants and revokes to the passed user. Updates occurs
-     * in a transaction. Assumes connection is already open.
+     * in a transaction. Assumes connection is already open. Passed current
+     * authorities of user are used to compute grants to apply, statements are
+     * added to the passed batch.
      */
-    @SuppressWarnings("unchecked")
-    private void updateAuthority(String user, Set<Attribute> attrs, UpdateType type)
-            throws SQLException {
+    private void updateAuthority(String user, Set<Attribute> attrs, UpdateType type,
+            Collection<DB2Authority> current, DB2StatementBatch batch) throws SQLException {
         checkAdminConnection();
-        Attribute wsAttr = AttributeUtil.find(USER_AUTH_GRANTS, attrs);
-        Collection<String> grants =
-                (Collection<String>) (wsAttr != null ? new ArrayList<Object>(wsAttr.getValue())
-                        : new ArrayList<String>(3));
+        Collection<String> grants = getGrants(attrs);
         switch (type) {
         case ADD: {
             addMandatoryConnect(grants);
-            executeGrants(grants, user);
+            executeGrants(DB2GrantPlanner.filterGrants(grants, heldGrants(current), false),
+                    user, batch);
             break;
         }
         case REPLACE: {
             addMandatoryConnect(grants);
-            revokeAllGrants(user);
-            executeGrants(grants, user);
+            replaceGrants(grants, user, current, batch);
             break;
         }
         case DELETE: {
             removeMandatoryRevoke(grants);
-            executeRevokes(grants, user);
+            executeRevokes(DB2GrantPlanner.filterGrants(grants, heldGrants(current), true),
+                    user, batch);
             break;
         }
         }
     }
 
+    /**
+     * Returns grants passed in attributes.
+     */
+    @SuppressWarnings("unchecked")
+    private static Collection<String> getGrants(Set<Attribute> attrs) {
+        Attribute wsAttr = AttributeUtil.find(USER_AUTH_GRANTS, attrs);
+        return (Collection<String>) (wsAttr != null ? new ArrayList<Object>(wsAttr.getValue())
+                : new ArrayList<String>(3));
+    }
+
+    /**
+     * Converts authorities of user to the form of normalized grants.
+     */
+    private static Set<String> heldGrants(Collection<DB2Authority> current) {
+        final Set<String> held = new HashSet<String>();
+        for (DB2Authority auth : current) {
+            held.add(DB2Specifics.authType2DB2AuthorityTable(auth.authorityType).generateGrant(
+                    auth));
+        }
+        return held;
+    }
+
+    /**
+     * Creates batch of GRANT/REVOKE statements on admin connection.
+     */
+    private DB2StatementBatch createBatch() {
+        return new DB2StatementBatch(adminConn, cfg.getGrantBatchSize());
+    }
+
+    /**
+     * Plans, executes and commits write operation. When group commit is on,
+     * write is planned and executed on the shared connection of the committer
+     * and committed together with writes of other connector instances,
+     * otherwise it is planned and executed on the admin connection.
+     */
+    private void commitWrite(DB2GroupCommitter.Write write) throws SQLException {
+        if (groupCommitter != null) {
+            groupCommitter.execute(write);
+            return;
+        }
+        checkAdminConnection();
+        final DB2StatementBatch batch = createBatch();
+        try {
+            write.plan(statements, batch);
+            batch.flush();
+        } finally {
+            batch.close();
+        }
+        adminConn.commit();
+    }
+
     private void addMandatoryConnect(Collection<String> grants) {
         boolean addConnect = true;
         for (String grant : grants) {
-            if (grant.trim().equalsIgnoreCase("CONNECT ON DATABASE")) {
+            if (grant.trim().equalsIgnoreCase(CONNECT_GRANT)) {
                 addConnect = false;
             }
         }
         if (addConnect) {
-            grants.add("CONNECT ON DATABASE");
+            grants.add(CONNECT_GRANT);
         }
     }
 
     private void removeMandatoryRevoke(Collection<String> grants) {
         for (Iterator<String> i = grants.iterator(); i.hasNext();) {
-            if (i.next().trim().equalsIgnoreCase("CONNECT ON DATABASE")) {
+            if (i.next().trim().equalsIgnoreCase(CONNECT_GRANT)) {
                 i.remove();
             }
         }
@@ -501,93 +1239,276 @@ public class DB2Connector implements AuthenticateOp, SchemaOp, CreateOp,
     }
 
     /**
-     * Removes all grants for a user on the resource. Effectively deletes them
-     * from the resource.
+     * Replaces grants of user by passed grants. We compare passed grants with
+     * current authorities of user and revoke only authorities user should not
+     * have and grant only missing grants, so user never loses access that does
+     * not change. Privileges on object with CONTROL that stays are not
+     * revoked, DB2 grants them together with CONTROL. Privileges on object of
+     * grant we cannot parse, e.g. 'ALL ON HR.SALARY', are not revoked either,
+     * we only issue the grant again.
      */
-    private void revokeAllGrants(String user) throws SQLException {
+    private void replaceGrants(Collection<String> grants, String user,
+            Collection<DB2Authority> current, DB2StatementBatch batch) throws SQLException {
         checkDB2Validity(user);
-        Collection<DB2Authority> allAuthorities =
-                new DB2AuthorityReader(adminConn).readAllAuthorities(user);
-        revokeGrants(allAuthorities);
+        final Map<String, String> toGrant = new LinkedHashMap<String, String>();
+        final Set<String> controlled = new HashSet<String>();
+        final Set<String> unparsedObjects = new HashSet<String>();
+        for (String grant : grants) {
+            toGrant.put(DB2Specifics.normalizeGrant(grant), grant);
+            final DB2Authority auth = DB2Specifics.parseGrant(grant, user);
+            if (auth != null && "CONTROL".equals(auth.authorityFunction)) {
+                controlled.add(auth.authorityType + ' ' + auth.authorityObject);
+            } else if (auth == null && DB2Specifics.grantObject(grant) != null) {
+                unparsedObjects.add(DB2Specifics.grantObject(grant));
+            }
+        }
+        final Map<String, DB2Authority> toRevoke = new LinkedHashMap<String, DB2Authority>();
+        final Set<String> held = new HashSet<String>();
+        for (DB2Authority auth : current) {
+            final String grant =
+                    DB2Specifics.authType2DB2AuthorityTable(auth.authorityType).generateGrant(auth);
+            if (toGrant.containsKey(grant)) {
+                held.add(grant);
+            } else if (!controlled.contains(auth.authorityType + ' ' + auth.authorityObject)
+                    && !unparsedObjects.contains(auth.authorityObject)) {
+                // authority can be read more times, once for each grantor
+                toRevoke.put(grant, auth);
+            }
+        }
+        toGrant.keySet().removeAll(held);
+        LOG.info("Replacing grants of user {0} : revoking {1}, granting {2}", user, toRevoke
+                .size(), toGrant.size());
+        revokeGrants(toRevoke.values(), batch);
+        executeGrants(toGrant.values(), user, batch);
     }
 
     /**
      * For a given grant type and user, revokes the passed collection of grant
-     * objects from the resource.
+     * objects from the resource. Privileges on the same object are revoked by
+     * one statement.
      */
-    private void revokeGrants(Collection<DB2Authority> db2AuthoritiesToRevoke) throws SQLException {
-        for (DB2Authority auth : db2AuthoritiesToRevoke) {
-            DB2AuthorityTable authTable =
-                    DB2Specifics.authType2DB2AuthorityTable(auth.authorityType);
-            String revokeSQL = authTable.generateRevokeSQL(auth);
-            executeSQL(revokeSQL);
+    private void revokeGrants(Collection<DB2Authority> db2AuthoritiesToRevoke,
+            DB2StatementBatch batch) throws SQLException {
+        for (String revokeSQL : DB2GrantPlanner.planAuthorityRevokes(db2AuthoritiesToRevoke)) {
+            batch.add(revokeSQL);
         }
     }
 
-    private void executeSQL(String sql) throws SQLException {
-        checkAdminConnection();
-        Statement statement = null;
+    /**
+     * Executes a set of sql GRANT statements built using an sql prefix, a
+     * collection of grant objects, a postfix, and a user. Privileges on the
+     * same object are granted by one statement. Throws if anything goes wrong.
+     */
+    private void executeGrants(Collection<String> grants, String user, DB2StatementBatch batch)
+            throws SQLException {
+        for (String sql : DB2GrantPlanner.planGrants(grants, user)) {
+            batch.add(sql);
+        }
+    }
+
+    /**
+     * Executes a set of sql REVOKE statements built using an sql prefix, a
+     * collection of grant objects, a postfix, and a user. Privileges on the
+     * same object are revoked by one statement. Throws if anything goes wrong.
+     */
+    private void executeRevokes(Collection<String> grants, String user, DB2StatementBatch batch)
+            throws SQLException {
+        for (String sql : DB2GrantPlanner.planRevokes(grants, user)) {
+            batch.add(sql);
+        }
+    }
+
+    /**
+     * Removes all associated grants from user, so do all revoke statement.
+     * Authorities we revoke are read once and tell also whether user exists.
+     */
+    public void delete(ObjectClass objClass, Uid uid, OperationOptions options) {
+        leaseConnection();
         try {
-            statement = adminConn.createStatement();
-            statement.execute(sql);
-        } catch (SQLException e) {
-            LOG.error(e, "Error executing sql {0}", sql);
+            checkObjectClass(objClass);
+            final String uidValue = uid.getUidValue();
+            checkDB2Validity(uidValue);
+            LOG.info("Deleting user : {0}", uidValue);
+            try {
+                commitWrite(new DB2GroupCommitter.Write() {
+                    public void plan(DB2StatementCache conn, DB2StatementBatch batch)
+                            throws SQLException {
+                        final Collection<DB2Authority> current =
+                                readCurrentAuthorities(conn, uidValue);
+                        checkUserExist(uidValue, current);
+                        revokeGrants(current, batch);
+                    }
+                });
+                LOG.info("User deleted : {0}", uidValue);
+            } catch (UnknownUidException e) {
+                SQLUtil.rollbackQuietly(adminConn);
+                throw e;
+            } catch (Exception e) {
+                SQLUtil.rollbackQuietly(adminConn);
+                String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
+                throw new ConnectorException(cfg.getConnectorMessages().format(
+                        DB2Messages.DELETE_OF_USER_FAILED, null, uidValue, detailMsg), e);
+            } finally {
+                invalidateAuthorities(uidValue);
+            }
+        } catch (RuntimeException e) {
+            leaseFailed = true;
             throw e;
         } finally {
-            SQLUtil.closeQuietly(statement);
+            releaseConnection();
         }
     }
 
     /**
-     * Executes a set of sql GRANT statements built using an sql prefix, a
-     * collection of grant objects, a postfix, and a user. Throws if anything
-     * goes wrong.
+     * Reports users whose grants changed since the passed token. We take
+     * snapshot of grants of all users and compare digest of grants of each
+     * user with the digest stored in the token. New users are reported as
+     * CREATE, users with changed grants as UPDATE and users no longer present
+     * as DELETE. Null token means no user was seen yet, so all users are
+     * reported as created. <br/>
+     * Each delta carries token of the last checkpoint, so the sync can be
+     * safely resumed when handler stops, it just reports some deltas again.
      */
-    private void executeGrants(Collection<String> grants, String user) throws SQLException {
-        for (String grant : grants) {
-            String sql = "GRANT " + grant + " TO USER " + user.toUpperCase();
-            executeSQL(sql);
+    public void sync(ObjectClass objClass, SyncToken token, SyncResultsHandler handler,
+            OperationOptions options) {
+        leaseConnection();
+        try {
+            checkObjectClass(objClass);
+            syncSnapshot(token, readSnapshot(), handler);
+        } catch (RuntimeException e) {
+            leaseFailed = true;
+            throw e;
+        } finally {
+            releaseConnection();
         }
     }
 
     /**
-     * Executes a set of sql REVOKE statements built using an sql prefix, a
-     * collection of grant objects, a postfix, and a user. Throws if anything
-     * goes wrong.
+     * Reports differences between digests of users in the token and passed
+     * snapshot of grants. Encoding the token costs time proportional to
+     * number of users, so we do not encode it for each delta. Delta carries
+     * token of the last checkpoint, starting with passed token, which is
+     * safe to restart from, the sync just reports some deltas again. New
+     * checkpoint is encoded every {@link #SYNC_CHECKPOINT_DELTAS} deltas and
+     * the last delta carries the final token. We keep one delta back to know
+     * which delta is the last one.
      */
-    private void executeRevokes(Collection<String> grants, String user) throws SQLException {
-        for (String grant : grants) {
-            String sql = "REVOKE " + grant + " FROM USER " + user.toUpperCase();
-            executeSQL(sql);
+    static void syncSnapshot(SyncToken token, SortedMap<String, List<String>> snapshot,
+            SyncResultsHandler handler) {
+        final SortedMap<String, String> digests = DB2SyncToken.decode(token);
+        final SortedSet<String> users = new TreeSet<String>(digests.keySet());
+        users.addAll(snapshot.keySet());
+        LOG.info("Sync of {0} users", users.size());
+        SyncToken checkpoint = token != null ? token : DB2SyncToken.encode(digests);
+        SyncDeltaBuilder pending = null;
+        int reported = 0;
+        for (String user : users) {
+            final List<String> grants = snapshot.get(user);
+            final String digest = grants != null ? DB2SyncToken.digest(grants) : null;
+            if (grants != null && digest.equals(digests.get(user))) {
+                continue;
+            }
+            if (pending != null) {
+                // digests do not contain change of this user yet
+                if (++reported % SYNC_CHECKPOINT_DELTAS == 0) {
+                    checkpoint = DB2SyncToken.encode(digests);
+                }
+                if (!handler.handle(pending.setToken(checkpoint).build())) {
+                    return;
+                }
+            }
+            pending = new SyncDeltaBuilder().setUid(new Uid(user));
+            if (grants == null) {
+                digests.remove(user);
+                pending.setDeltaType(SyncDeltaType.DELETE).setObjectClass(ObjectClass.ACCOUNT);
+            } else {
+                final String previous = digests.put(user, digest);
+                pending.setDeltaType(previous == null ? SyncDeltaType.CREATE
+                        : SyncDeltaType.UPDATE);
+                pending.setObject(buildConnectorObject(user, grants));
+            }
+        }
+        final SyncToken last = DB2SyncToken.encode(digests);
+        if (pending != null && !handler.handle(pending.setToken(last).build())) {
+            return;
+        }
+        if (handler instanceof SyncTokenResultsHandler) {
+            ((SyncTokenResultsHandler) handler).handleResult(last);
         }
     }
 
     /**
-     * Removes all associated grants from user, so do all revoke statement.
+     * Returns token with digests of grants of all current users, sync started
+     * with this token reports only later changes.
      */
-    public void delete(ObjectClass objClass, Uid uid, OperationOptions options) {
-        checkObjectClass(objClass);
-        final String uidValue = uid.getUidValue();
-        checkUserExist(uidValue);
-        LOG.info("Deleting user : {0}", uidValue);
+    public SyncToken getLatestSyncToken(ObjectClass objClass) {
+        leaseConnection();
         try {
-            revokeAllGrants(uidValue);
-            adminConn.commit();
-            LOG.info("User deleted : {0}", uidValue);
-        } catch (Exception e) {
-            SQLUtil.rollbackQuietly(adminConn);
+            checkObjectClass(objClass);
+            final SortedMap<String, String> digests = new TreeMap<String, String>();
+            for (Map.Entry<String, List<String>> entry : readSnapshot().entrySet()) {
+                digests.put(entry.getKey(), DB2SyncToken.digest(entry.getValue()));
+            }
+            return DB2SyncToken.encode(digests);
+        } catch (RuntimeException e) {
+            leaseFailed = true;
+            throw e;
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /**
+     * Reads grants of all users. Each authority table is scanned just once.
+     */
+    private SortedMap<String, List<String>> readSnapshot() {
+        try {
+            final List<String> userNames = readAllUserNames();
+            final Map<String, Collection<DB2Authority>> auths =
+                    new DB2AuthorityReader(statements).readAllUsersAuthorities(userNames);
+            final SortedMap<String, List<String>> snapshot = new TreeMap<String, List<String>>();
+            for (Map.Entry<String, Collection<DB2Authority>> entry : auths.entrySet()) {
+                snapshot.put(entry.getKey(), buildAuthorityAttributeValue(entry.getValue()));
+            }
+            return snapshot;
+        } catch (SQLException e) {
             String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
             throw new ConnectorException(cfg.getConnectorMessages().format(
-                    DB2Messages.DELETE_OF_USER_FAILED, null, uidValue, detailMsg), e);
+                    DB2Messages.SYNC_FAILED, null, detailMsg), e);
+        }
+    }
+
+    private List<String> readAllUserNames() throws SQLException {
+        final List<String> userNames = new ArrayList<String>();
+        ResultSet rs = null;
+        try {
+            rs = statements.prepareQuery(ALL_USER_QUERY).executeQuery();
+            while (rs.next()) {
+                userNames.add(rs.getString("GRANTEE").trim());
+            }
+        } finally {
+            SQLUtil.closeQuietly(rs);
         }
+        return userNames;
     }
 
     /**
      * Test of configuration and validity of connection
      */
     public void test() {
-        cfg.validate();
-        DB2Specifics.testConnection(adminConn, getTestSQL());
+        leaseConnection();
+        try {
+            cfg.validate();
+            DB2Specifics.testConnection(adminConn, getTestSQL());
+            if (authorityCache != null) {
+                authorityCache.logStatistics();
+            }
+        } catch (RuntimeException e) {
+            leaseFailed = true;
+            throw e;
+        } finally {
+            releaseConnection();
+        }
     }
 
     /**
@@ -618,7 +1539,7 @@ public class DB2Connector implements AuthenticateOp, SchemaOp, CreateOp,
                 options);
     }
 
-    private Uid update(UpdateType type, ObjectClass objclass, Set<Attribute> attrs,
+    private Uid update(final UpdateType type, ObjectClass objclass, final Set<Attribute> attrs,
             OperationOptions options) {
         checkObjectClass(objclass);
         checkUpdateAttributes(attrs);
@@ -633,19 +1554,48 @@ public class DB2Connector implements AuthenticateOp, SchemaOp, CreateOp,
                     DB2Messages.UPDATE_UID_CANNOT_BE_NULL_OR_EMPTY, null));
         }
         final String uidValue = uid.getUidValue();
-        checkUserExist(uidValue);
+        if (coalescer != null) {
+            // connection is leased by applier after the window
+            final Collection<String> grants = getGrants(attrs);
+            final Collection<String> none = Collections.emptyList();
+            LOG.info("Submitting update of user : {0}", uidValue);
+            submitUpdate(uidValue, type == UpdateType.REPLACE ? grants : null,
+                    type == UpdateType.ADD ? grants : none, type == UpdateType.DELETE ? grants
+                            : none);
+            return uid;
+        }
+        leaseConnection();
         try {
             LOG.info("Update user : {0}", uidValue);
-            updateAuthority(uidValue, attrs, type);
-            adminConn.commit();
-            LOG.info("User updated : {0}", uidValue);
-        } catch (Exception e) {
-            SQLUtil.rollbackQuietly(adminConn);
-            String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
-            throw new ConnectorException(cfg.getConnectorMessages().format(
-                    DB2Messages.UPDATE_OF_USER_FAILED, null, uidValue, detailMsg), e);
+            try {
+                commitWrite(new DB2GroupCommitter.Write() {
+                    public void plan(DB2StatementCache conn, DB2StatementBatch batch)
+                            throws SQLException {
+                        final Collection<DB2Authority> current =
+                                readCurrentAuthorities(conn, uidValue);
+                        checkUserExist(uidValue, current);
+                        updateAuthority(uidValue, attrs, type, current, batch);
+                    }
+                });
+                LOG.info("User updated : {0}", uidValue);
+            } catch (UnknownUidException e) {
+                SQLUtil.rollbackQuietly(adminConn);
+                throw e;
+            } catch (Exception e) {
+                SQLUtil.rollbackQuietly(adminConn);
+                String detailMsg = new SQLMsgRetriever().retrieveMsg(e);
+                throw new ConnectorException(cfg.getConnectorMessages().format(
+                        DB2Messages.UPDATE_OF_USER_FAILED, null, uidValue, detailMsg), e);
+            } finally {
+                invalidateAuthorities(uidValue);
+            }
+            return uid;
+        } catch (RuntimeException e) {
+            leaseFailed = true;
+            throw e;
+        } finally {
+            releaseConnection();
         }
-        return uid;
     }
 
     public Attribute normalizeAttribute(ObjectClass oclass, Attribute attribute) {
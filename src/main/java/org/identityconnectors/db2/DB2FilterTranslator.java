@@ -31,6 +31,8 @@ import org.identityconnectors.framework.common.objects.Name;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.ContainsAllValuesFilter;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
 
 /**
  * DB2 filter translator.
@@ -38,6 +40,9 @@ import org.identityconnectors.framework.common.objects.Uid;
  * @since 1.0
  */
 class DB2FilterTranslator extends DatabaseFilterTranslator {
+    /** Grantee column of the user search query, see DB2Connector. */
+    private static final String OUTER_GRANTEE = "U.GRANTEE";
+
     /**
      * The filter translator constructor.
      *
@@ -63,6 +68,60 @@ class DB2FilterTranslator extends DatabaseFilterTranslator {
         return super.validateSearchAttribute(attribute);
     }
 
+    /**
+     * Equality on grants is pushed down as condition that user holds all
+     * passed grants. This is a superset of exact match, framework does the
+     * final filtering.
+     */
+    @Override
+    protected FilterWhereBuilder createEqualsExpression(EqualsFilter filter, boolean not) {
+        if (filter.getAttribute().is(DB2Connector.USER_AUTH_GRANTS)) {
+            return not ? null : createGrantsExpression(filter.getAttribute());
+        }
+        return super.createEqualsExpression(filter, not);
+    }
+
+    @Override
+    protected FilterWhereBuilder createContainsAllValuesExpression(
+            ContainsAllValuesFilter filter, boolean not) {
+        if (filter.getAttribute().is(DB2Connector.USER_AUTH_GRANTS)) {
+            return not ? null : createGrantsExpression(filter.getAttribute());
+        }
+        return super.createContainsAllValuesExpression(filter, not);
+    }
+
+    /**
+     * Translates each passed grant into EXISTS subquery against authority
+     * table the grant belongs to. When any grant cannot be parsed, we return
+     * null and let the framework filter.
+     */
+    private FilterWhereBuilder createGrantsExpression(Attribute grants) {
+        if (grants.getValue() == null || grants.getValue().isEmpty()) {
+            return null;
+        }
+        FilterWhereBuilder ret = createBuilder();
+        for (Object grant : grants.getValue()) {
+            if (grant == null) {
+                return null;
+            }
+            DB2Authority authority = DB2Specifics.parseGrant(grant.toString(), null);
+            if (authority == null) {
+                return null;
+            }
+            FilterWhereBuilder predicate =
+                    DB2AuthorityReader.buildExistsPredicate(authority, OUTER_GRANTEE);
+            if (predicate == null) {
+                return null;
+            }
+            if (ret.getWhere().length() > 0) {
+                ret.getWhere().append(" AND ");
+            }
+            ret.getWhere().append(predicate.getWhere());
+            ret.getParams().addAll(predicate.getParams());
+        }
+        return ret;
+    }
+
     @Override
     protected SQLParam getSQLParam(Attribute attribute, ObjectClass oclass, OperationOptions options) {
         if (attribute.is(Name.NAME) || attribute.is(Uid.NAME)) {
@@ -0,0 +1,229 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Plans GRANT and REVOKE statements. Privileges of the same authority type on
+ * the same object are combined into one statement, e.g.
+ * <code>GRANT SELECT, INSERT ON HR.SALARY TO USER JOHN</code>, so we execute
+ * one statement per object instead of one per privilege. Grants we cannot
+ * parse are passed through unchanged. Statements are planned in the order in
+ * which their objects first appear.
+ */
+final class DB2GrantPlanner {
+    private final static Log LOG = Log.getLog(DB2GrantPlanner.class);
+    /**
+     * Maximal length of planned statement granting the same privileges to
+     * more users. DB2 accepts statements up to 2MB, we keep them short, as one
+     * failing statement fails grants of all its users. With 8 character user
+     * names one statement grants to at most about 130 users, still far fewer
+     * statements than one per user.
+     */
+    static final int MAX_STATEMENT_LENGTH = 2000;
+
+    private DB2GrantPlanner() {
+    }
+
+    /** Privileges of one authority type on one object */
+    private static final class ObjectPrivileges {
+        final String authorityType;
+        final String authorityObject;
+        final String userName;
+        final Set<String> functions = new LinkedHashSet<String>();
+        /** Unparsed grant, set when grant is passed through */
+        final String grant;
+
+        ObjectPrivileges(DB2Authority auth) {
+            this.authorityType = auth.authorityType;
+            this.authorityObject = auth.authorityObject;
+            this.userName = auth.userName;
+            this.grant = null;
+        }
+
+        ObjectPrivileges(String grant, String userName) {
+            this.authorityType = null;
+            this.authorityObject = null;
+            this.userName = userName;
+            this.grant = grant;
+        }
+
+        String clause() {
+            if (grant != null) {
+                return grant;
+            }
+            final StringBuilder clause = new StringBuilder();
+            for (String function : functions) {
+                if (clause.length() > 0) {
+                    clause.append(", ");
+                }
+                clause.append(function);
+            }
+            final DB2AuthorityTable table = DB2Specifics.authType2DB2AuthorityTable(authorityType);
+            clause.append(' ').append(table.sqlRevokeFunctionObjectConnector);
+            clause.append(' ').append(authorityObject);
+            return clause.toString().trim();
+        }
+    }
+
+    /**
+     * Plans GRANT statements of passed grants for the user.
+     */
+    static List<String> planGrants(Collection<String> grants, String user) {
+        final List<String> statements = new ArrayList<String>();
+        for (ObjectPrivileges privileges : group(grants, user.toUpperCase())) {
+            statements.add("GRANT " + privileges.clause() + " TO USER " + privileges.userName);
+        }
+        return statements;
+    }
+
+    /**
+     * Plans GRANT statements of grants of more users. Users with the same
+     * privileges on the same object are granted by one statement, e.g.
+     * <code>GRANT SELECT ON HR.SALARY TO USER JOHN, USER MARY</code>. Statement
+     * is split when it would be longer than {@link #MAX_STATEMENT_LENGTH}.
+     *
+     * @param grants
+     *            map of user name to its grants
+     */
+    static List<String> planSharedGrants(Map<String, ? extends Collection<String>> grants) {
+        final Map<String, List<String>> grantees = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : grants.entrySet()) {
+            for (ObjectPrivileges privileges : group(entry.getValue(), entry.getKey()
+                    .toUpperCase())) {
+                final String clause = privileges.clause();
+                List<String> users = grantees.get(clause);
+                if (users == null) {
+                    users = new ArrayList<String>();
+                    grantees.put(clause, users);
+                }
+                if (!users.contains(privileges.userName)) {
+                    users.add(privileges.userName);
+                }
+            }
+        }
+        final List<String> statements = new ArrayList<String>();
+        for (Map.Entry<String, List<String>> entry : grantees.entrySet()) {
+            final String prefix = "GRANT " + entry.getKey() + " TO ";
+            StringBuilder statement = new StringBuilder(prefix);
+            for (String user : entry.getValue()) {
+                if (statement.length() > prefix.length()
+                        && statement.length() + user.length() + 7 > MAX_STATEMENT_LENGTH) {
+                    statements.add(statement.toString());
+                    statement = new StringBuilder(prefix);
+                }
+                if (statement.length() > prefix.length()) {
+                    statement.append(", ");
+                }
+                statement.append("USER ").append(user);
+            }
+            statements.add(statement.toString());
+        }
+        return statements;
+    }
+
+    /**
+     * Plans REVOKE statements of passed grants for the user.
+     */
+    static List<String> planRevokes(Collection<String> grants, String user) {
+        return revokes(group(grants, user.toUpperCase()));
+    }
+
+    /**
+     * Plans REVOKE statements of passed authorities.
+     */
+    static List<String> planAuthorityRevokes(Collection<DB2Authority> auths) {
+        final Map<String, ObjectPrivileges> groups = new LinkedHashMap<String, ObjectPrivileges>();
+        for (DB2Authority auth : auths) {
+            add(groups, auth);
+        }
+        return revokes(groups.values());
+    }
+
+    /**
+     * Filters grants against grants user holds, so we do not grant what user
+     * already has and do not revoke what user does not have. Grants we cannot
+     * parse, including grants of more privileges like 'ALL ON HR.SALARY', are
+     * always kept.
+     *
+     * @param keepHeld
+     *            when true, we keep grants user holds, otherwise grants user
+     *            does not hold
+     */
+    static Collection<String> filterGrants(Collection<String> grants, Set<String> held,
+            boolean keepHeld) {
+        final Collection<String> filtered = new ArrayList<String>(grants.size());
+        for (String grant : grants) {
+            if (DB2Specifics.parseGrant(grant, null) == null
+                    || held.contains(DB2Specifics.normalizeGrant(grant)) == keepHeld) {
+                filtered.add(grant);
+            }
+        }
+        if (filtered.size() < grants.size()) {
+            LOG.info("Skipping {0} grants already satisfied", grants.size() - filtered.size());
+        }
+        return filtered;
+    }
+
+    private static List<String> revokes(Collection<ObjectPrivileges> groups) {
+        final List<String> statements = new ArrayList<String>();
+        for (ObjectPrivileges privileges : groups) {
+            statements.add("REVOKE " + privileges.clause() + " FROM USER " + privileges.userName);
+        }
+        return statements;
+    }
+
+    private static Collection<ObjectPrivileges> group(Collection<String> grants, String user) {
+        final Map<String, ObjectPrivileges> groups = new LinkedHashMap<String, ObjectPrivileges>();
+        for (String grant : grants) {
+            final DB2Authority auth = DB2Specifics.parseGrant(grant, user);
+            if (auth != null) {
+                add(groups, auth);
+            } else {
+                groups.put("\0" + grant, new ObjectPrivileges(grant, user));
+            }
+        }
+        return groups.values();
+    }
+
+    private static void add(Map<String, ObjectPrivileges> groups, DB2Authority auth) {
+        final String key =
+                auth.userName + ' ' + auth.authorityType + ' ' + auth.authorityObject;
+        ObjectPrivileges privileges = groups.get(key);
+        if (privileges == null) {
+            privileges = new ObjectPrivileges(auth);
+            groups.put(key, privileges);
+        }
+        privileges.functions.add(auth.authorityFunction);
+    }
+}
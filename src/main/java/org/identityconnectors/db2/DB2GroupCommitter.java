@@ -0,0 +1,314 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.dbcommon.SQLUtil;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Commits writes of concurrent connector instances together. Committer is
+ * shared by all connector instances of the same configuration in the JVM and
+ * owns one admin connection. First write submitted opens group. When no other
+ * group is being committed, the group is committed at once, so single write
+ * does not wait. Otherwise the group collects writes while previous group
+ * commits, at most for group commit interval or until it has group commit
+ * size writes. Then the leader plans and executes statements of all writes
+ * of the group on the shared connection and commits once, so the group pays
+ * one log write. Each write reads what it needs on the shared connection, so
+ * it sees writes committed before and writes of the group planned before it.
+ * Each write is executed within its own savepoint, failed write is rolled
+ * back to its savepoint and does not roll back other writes of the group.
+ * <br/>
+ * With update coalescing on, coalesce window and group commit interval add
+ * up, coalesced update waits for its window and then for its group.
+ */
+final class DB2GroupCommitter {
+    private final static Log LOG = Log.getLog(DB2GroupCommitter.class);
+    /** Shared committers keyed by configuration */
+    private static final Map<String, DB2GroupCommitter> SHARED_COMMITTERS =
+            new HashMap<String, DB2GroupCommitter>();
+
+    /**
+     * Plans statements of one write. It is called by the leader of the group
+     * on the shared connection within savepoint of the write.
+     */
+    interface Write {
+        /**
+         * Reads what the write needs using passed statements and adds its
+         * statements to the batch.
+         */
+        void plan(DB2StatementCache statements, DB2StatementBatch batch) throws SQLException;
+    }
+
+    /** One write and its result */
+    private static final class Member {
+        final Write write;
+        /** SQLException or RuntimeException the write failed with */
+        Exception failure;
+
+        Member(Write write) {
+            this.write = write;
+        }
+    }
+
+    /** Writes committed together */
+    private static final class Group {
+        final List<Member> members = new ArrayList<Member>();
+        final CountDownLatch done = new CountDownLatch(1);
+    }
+
+    private final String key;
+    private final DB2Configuration cfg;
+    private final Object connectionLock = new Object();
+    /** Shared connection, guarded by connectionLock */
+    private Connection conn;
+    /** Prepared catalog queries of shared connection, guarded by connectionLock */
+    private DB2StatementCache statements;
+    /** Group accepting writes, guarded by this */
+    private Group current;
+    /** Number of closed groups not committed yet, guarded by this */
+    private int committing;
+    /** Number of connector instances using committer, guarded by SHARED_COMMITTERS */
+    private int references;
+
+    private DB2GroupCommitter(String key, DB2Configuration cfg) {
+        this.key = key;
+        this.cfg = cfg;
+    }
+
+    /**
+     * Returns committer shared by all connector instances using the same
+     * configuration key. Committer is created by first caller with its
+     * configuration. Each call must be paired with {@link #release()}.
+     */
+    static DB2GroupCommitter acquire(DB2Configuration cfg) {
+        final String key = cfg.getConfigurationKey();
+        synchronized (SHARED_COMMITTERS) {
+            DB2GroupCommitter committer = SHARED_COMMITTERS.get(key);
+            if (committer == null) {
+                committer = new DB2GroupCommitter(key, cfg);
+                SHARED_COMMITTERS.put(key, committer);
+            }
+            committer.references++;
+            return committer;
+        }
+    }
+
+    /**
+     * Releases committer, shared connection is closed when last connector
+     * instance releases committer.
+     */
+    void release() {
+        synchronized (SHARED_COMMITTERS) {
+            if (--references > 0) {
+                return;
+            }
+            SHARED_COMMITTERS.remove(key);
+        }
+        synchronized (connectionLock) {
+            closeConnection();
+        }
+    }
+
+    /**
+     * Plans and executes one write and returns when it is committed together
+     * with the group.
+     *
+     * @throws SQLException
+     *             when statement of the write fails or group cannot be
+     *             committed
+     */
+    void execute(Write write) throws SQLException {
+        final Member member = new Member(write);
+        final Group group;
+        final boolean leader;
+        synchronized (this) {
+            leader = current == null;
+            if (leader) {
+                current = new Group();
+            }
+            group = current;
+            group.members.add(member);
+            if (group.members.size() >= cfg.getGroupCommitSize()) {
+                current = null;
+                notifyAll();
+            }
+        }
+        if (leader) {
+            awaitGroup(group);
+            commitGroup(group);
+        } else {
+            try {
+                group.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException("Interrupted while waiting for group commit", e);
+            }
+        }
+        if (member.failure instanceof SQLException) {
+            throw (SQLException) member.failure;
+        }
+        if (member.failure != null) {
+            throw (RuntimeException) member.failure;
+        }
+    }
+
+    /**
+     * Waits while other group is committed until group is full or group
+     * commit interval passes, then closes the group for other writes.
+     */
+    private synchronized void awaitGroup(Group group) {
+        final long end = System.currentTimeMillis() + cfg.getGroupCommitInterval();
+        long remaining = cfg.getGroupCommitInterval();
+        while (committing > 0 && current == group && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                // we commit what was submitted so far
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = end - System.currentTimeMillis();
+        }
+        if (current == group) {
+            current = null;
+        }
+        committing++;
+    }
+
+    private synchronized void groupCommitted() {
+        committing--;
+        notifyAll();
+    }
+
+    private void commitGroup(Group group) {
+        try {
+            synchronized (connectionLock) {
+                try {
+                    final Connection c = getConnection();
+                    int failed = 0;
+                    for (Member member : group.members) {
+                        if (!executeMember(c, member)) {
+                            failed++;
+                        }
+                    }
+                    c.commit();
+                    statements.markUsed();
+                    LOG.info("Group of {0} writes committed, {1} writes failed", group.members
+                            .size(), failed);
+                } catch (SQLException e) {
+                    failGroup(group, e);
+                } catch (RuntimeException e) {
+                    // connection cannot be opened
+                    failGroup(group, e);
+                }
+            }
+        } finally {
+            groupCommitted();
+            group.done.countDown();
+        }
+    }
+
+    /**
+     * Marks all writes of the group not failed yet as failed and closes
+     * shared connection, connection is reopened by next group. Caller must
+     * hold connectionLock.
+     */
+    private void failGroup(Group group, Exception e) {
+        LOG.error(e, "Group commit failed");
+        SQLUtil.rollbackQuietly(conn);
+        closeConnection();
+        for (Member member : group.members) {
+            if (member.failure == null) {
+                member.failure = e;
+            }
+        }
+    }
+
+    /**
+     * Plans and executes write within savepoint. Failed write is rolled back
+     * to its savepoint.
+     *
+     * @return false when write failed
+     * @throws SQLException
+     *             when savepoint cannot be set or rolled back
+     */
+    private boolean executeMember(Connection c, Member member) throws SQLException {
+        final Savepoint savepoint = c.setSavepoint();
+        final DB2StatementBatch batch = new DB2StatementBatch(c, cfg.getGrantBatchSize());
+        try {
+            member.write.plan(statements, batch);
+            batch.flush();
+        } catch (SQLException e) {
+            member.failure = e;
+        } catch (RuntimeException e) {
+            // e.g. user does not exist
+            member.failure = e;
+        } finally {
+            batch.close();
+        }
+        if (member.failure != null) {
+            c.rollback(savepoint);
+            return false;
+        }
+        c.releaseSavepoint(savepoint);
+        return true;
+    }
+
+    private Connection getConnection() throws SQLException {
+        if (conn == null) {
+            final Connection c = cfg.createAdminConnection();
+            try {
+                // savepoints need transaction, so we switch auto commit off
+                // also for connection from datasource
+                c.setAutoCommit(false);
+            } catch (SQLException e) {
+                SQLUtil.closeQuietly(c);
+                throw e;
+            }
+            conn = c;
+            statements = new DB2StatementCache(c);
+        }
+        return conn;
+    }
+
+    private void closeConnection() {
+        if (statements != null) {
+            statements.close();
+            statements = null;
+        }
+        SQLUtil.closeQuietly(conn);
+        conn = null;
+    }
+}
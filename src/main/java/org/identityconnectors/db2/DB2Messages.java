@@ -43,6 +43,21 @@ abstract class DB2Messages {
     static final String UPDATE_UID_CANNOT_BE_NULL_OR_EMPTY =
             "db2.update.uid.cannot.be.null.or.empty";
     static final String SEARCH_FAILED = "db2.search.failed";
+    static final String SYNC_FAILED = "db2.sync.failed";
+    static final String SCRIPT_NOT_SUPPORTED = "db2.script.not.supported";
+    static final String SCRIPT_ARGUMENT_INVALID = "db2.script.argument.invalid";
+    static final String USER_DUPLICATE = "db2.user.duplicate";
+    static final String VALUE_MUST_BE_POSITIVE = "db2.value.must.be.positive";
+    static final String VALUE_MUST_NOT_BE_NEGATIVE = "db2.value.must.not.be.negative";
+    static final String VALUE_MUST_NOT_EXCEED = "db2.value.must.not.exceed";
+    static final String CONNECTION_PROPERTY_INVALID = "db2.connection.property.invalid";
+    static final String CONNECTION_PROPERTY_UNKNOWN = "db2.connection.property.unknown";
+    static final String CONNECTION_PROPERTY_VALUE_INVALID =
+            "db2.connection.property.value.invalid";
+    static final String CONNECTION_PROPERTIES_WITH_DATASOURCE =
+            "db2.connection.properties.with.datasource";
+    static final String CONNECTION_PROPERTIES_WITH_LEGACY_DRIVER =
+            "db2.connection.properties.with.legacy.driver";
 
     static final String DB2_CONNECTOR_DISPLAY = "db2.connector";
     static final String DB2_ADMINACCOUNT_DISPLAY = "db2.adminAccount.display";
@@ -68,4 +83,41 @@ abstract class DB2Messages {
     static final String DB2_REPLACEALLGRANTSONUPDATE_DISPLAY =
             "db2.replaceAllGrantsOnUpdate.display";
     static final String DB2_REPLACEALLGRANTSONUPDATE_HELP = "db2.replaceAllGrantsOnUpdate.help";
+    static final String DB2_AUTHORITYREADPARALLELISM_DISPLAY =
+            "db2.authorityReadParallelism.display";
+    static final String DB2_AUTHORITYREADPARALLELISM_HELP = "db2.authorityReadParallelism.help";
+    static final String DB2_AUTHORITYCACHETTL_DISPLAY = "db2.authorityCacheTTL.display";
+    static final String DB2_AUTHORITYCACHETTL_HELP = "db2.authorityCacheTTL.help";
+    static final String DB2_AUTHORITYCACHEMAXSIZE_DISPLAY = "db2.authorityCacheMaxSize.display";
+    static final String DB2_AUTHORITYCACHEMAXSIZE_HELP = "db2.authorityCacheMaxSize.help";
+    static final String DB2_AUTHORITYCACHESHARED_DISPLAY = "db2.authorityCacheShared.display";
+    static final String DB2_AUTHORITYCACHESHARED_HELP = "db2.authorityCacheShared.help";
+    static final String DB2_GRANTBATCHSIZE_DISPLAY = "db2.grantBatchSize.display";
+    static final String DB2_GRANTBATCHSIZE_HELP = "db2.grantBatchSize.help";
+    static final String DB2_BULKCOMMITINTERVAL_DISPLAY = "db2.bulkCommitInterval.display";
+    static final String DB2_BULKCOMMITINTERVAL_HELP = "db2.bulkCommitInterval.help";
+    static final String DB2_UPDATECOALESCEWINDOW_DISPLAY = "db2.updateCoalesceWindow.display";
+    static final String DB2_UPDATECOALESCEWINDOW_HELP = "db2.updateCoalesceWindow.help";
+    static final String DB2_GROUPCOMMITINTERVAL_DISPLAY = "db2.groupCommitInterval.display";
+    static final String DB2_GROUPCOMMITINTERVAL_HELP = "db2.groupCommitInterval.help";
+    static final String DB2_GROUPCOMMITSIZE_DISPLAY = "db2.groupCommitSize.display";
+    static final String DB2_GROUPCOMMITSIZE_HELP = "db2.groupCommitSize.help";
+    static final String DB2_ADMINPOOLMAXSIZE_DISPLAY = "db2.adminPoolMaxSize.display";
+    static final String DB2_ADMINPOOLMAXSIZE_HELP = "db2.adminPoolMaxSize.help";
+    static final String DB2_ADMINPOOLMINSIZE_DISPLAY = "db2.adminPoolMinSize.display";
+    static final String DB2_ADMINPOOLMINSIZE_HELP = "db2.adminPoolMinSize.help";
+    static final String DB2_ADMINPOOLIDLETIMEOUT_DISPLAY = "db2.adminPoolIdleTimeout.display";
+    static final String DB2_ADMINPOOLIDLETIMEOUT_HELP = "db2.adminPoolIdleTimeout.help";
+    static final String DB2_VALIDATIONINTERVAL_DISPLAY = "db2.validationInterval.display";
+    static final String DB2_VALIDATIONINTERVAL_HELP = "db2.validationInterval.help";
+    static final String DB2_VALIDATIONTIMEOUT_DISPLAY = "db2.validationTimeout.display";
+    static final String DB2_VALIDATIONTIMEOUT_HELP = "db2.validationTimeout.help";
+    static final String DB2_TESTSQL_DISPLAY = "db2.testSQL.display";
+    static final String DB2_TESTSQL_HELP = "db2.testSQL.help";
+    static final String DB2_LAZYCONNECT_DISPLAY = "db2.lazyConnect.display";
+    static final String DB2_LAZYCONNECT_HELP = "db2.lazyConnect.help";
+    static final String DB2_ADMINPOOLWARMUPSIZE_DISPLAY = "db2.adminPoolWarmUpSize.display";
+    static final String DB2_ADMINPOOLWARMUPSIZE_HELP = "db2.adminPoolWarmUpSize.help";
+    static final String DB2_CONNECTIONPROPERTIES_DISPLAY = "db2.connectionProperties.display";
+    static final String DB2_CONNECTIONPROPERTIES_HELP = "db2.connectionProperties.help";
 }
@@ -0,0 +1,316 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.db2.DB2AuthorityReader.AuthorityQuery;
+import org.identityconnectors.dbcommon.SQLUtil;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Reads authority tables in parallel. Each authority table query is sent at
+ * the same time over its own read connection, so reading is bounded by the
+ * slowest table instead of sum of all tables. <br/>
+ * Reader is shared by all connector instances of the same configuration in
+ * the JVM, so number of reading threads does not grow with number of
+ * connector instances. When admin connection pool is on, read connections
+ * are leased from {@link DB2ConnectionPool}. We never wait for pooled
+ * connection, query which gets no connection is read by the caller over its
+ * own admin connection. When pool is off, read connections are created
+ * lazily up to the degree of parallelism and are owned by this reader. Each
+ * read connection keeps its own cache of prepared authority queries. <br/>
+ * Read connections in use when reader is released are closed, so no reading
+ * thread keeps connection after the last connector instance is disposed.
+ */
+final class DB2ParallelAuthorityReader {
+    private final static Log LOG = Log.getLog(DB2ParallelAuthorityReader.class);
+    /** Shared readers keyed by configuration and degree of parallelism */
+    private static final Map<String, DB2ParallelAuthorityReader> SHARED_READERS =
+            new HashMap<String, DB2ParallelAuthorityReader>();
+
+    private final String key;
+    private final DB2Configuration cfg;
+    private final int parallelism;
+    /** Pool of admin connections, null when pool is off */
+    private final DB2ConnectionPool pool;
+    private final BlockingQueue<DB2StatementCache> idleConnections =
+            new LinkedBlockingQueue<DB2StatementCache>();
+    private final AtomicInteger createdConnections = new AtomicInteger();
+    /** Read connections used by running tasks, guarded by itself */
+    private final Set<DB2StatementCache> usedConnections = new HashSet<DB2StatementCache>();
+    /** Whether reader was released by last connector instance */
+    private volatile boolean disposed;
+    /** Number of connector instances using reader, guarded by SHARED_READERS */
+    private int references;
+    private final ExecutorService executor;
+
+    private DB2ParallelAuthorityReader(String key, DB2Configuration cfg, int parallelism) {
+        this.key = key;
+        this.cfg = cfg;
+        this.parallelism = parallelism;
+        this.pool = cfg.getAdminPoolMaxSize() > 0 ? DB2ConnectionPool.acquire(cfg) : null;
+        this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread =
+                        new Thread(r, "DB2AuthorityReader-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns reader shared by all connector instances using the same
+     * configuration key. Reader is created by first caller with its
+     * configuration. Each call must be paired with {@link #release()}.
+     */
+    static DB2ParallelAuthorityReader acquire(DB2Configuration cfg) {
+        final String key = cfg.getConfigurationKey() + '|' + cfg.getAuthorityReadParallelism();
+        synchronized (SHARED_READERS) {
+            DB2ParallelAuthorityReader reader = SHARED_READERS.get(key);
+            if (reader == null) {
+                reader =
+                        new DB2ParallelAuthorityReader(key, cfg, cfg
+                                .getAuthorityReadParallelism());
+                SHARED_READERS.put(key, reader);
+            }
+            reader.references++;
+            return reader;
+        }
+    }
+
+    /**
+     * Releases shared reader, it is disposed when last connector instance
+     * releases it.
+     */
+    void release() {
+        synchronized (SHARED_READERS) {
+            if (--references > 0) {
+                return;
+            }
+            SHARED_READERS.remove(key);
+        }
+        dispose();
+    }
+
+    /**
+     * Returns number of shared readers, used by tests.
+     */
+    static int getSharedCount() {
+        synchronized (SHARED_READERS) {
+            return SHARED_READERS.size();
+        }
+    }
+
+    /**
+     * Reads authorities of all passed users, each authority table is read by
+     * one task. Authority table for which no read connection is available is
+     * read over the caller's connection.
+     *
+     * @param callerStatements
+     *            admin connection of the caller
+     * @see DB2AuthorityReader#readAllAuthorities(Collection)
+     */
+    Map<String, Collection<DB2Authority>> readAllAuthorities(final Collection<String> users,
+            DB2StatementCache callerStatements) throws SQLException {
+        final Map<String, Collection<DB2Authority>> allAuths =
+                DB2AuthorityReader.emptyAuthorities(users);
+        if (allAuths.isEmpty()) {
+            return allAuths;
+        }
+        final List<Future<Map<String, Collection<DB2Authority>>>> futures =
+                new ArrayList<Future<Map<String, Collection<DB2Authority>>>>();
+        for (final AuthorityQuery query : AuthorityQuery.values()) {
+            futures.add(executor.submit(new Callable<Map<String, Collection<DB2Authority>>>() {
+                public Map<String, Collection<DB2Authority>> call() throws SQLException {
+                    final DB2StatementCache conn = takeConnection();
+                    if (conn == null) {
+                        return null;
+                    }
+                    final Map<String, Collection<DB2Authority>> auths =
+                            DB2AuthorityReader.emptyAuthorities(allAuths.keySet());
+                    boolean ok = false;
+                    try {
+                        new DB2AuthorityReader(conn).readAuthorities(query, auths);
+                        if (!conn.getConnection().getAutoCommit()) {
+                            // release catalog locks
+                            conn.getConnection().commit();
+                        }
+                        ok = true;
+                    } finally {
+                        releaseConnection(conn, ok);
+                    }
+                    return auths;
+                }
+            }));
+        }
+        // Merge results in the order of authority tables
+        final AuthorityQuery[] queries = AuthorityQuery.values();
+        for (int i = 0; i < queries.length; i++) {
+            Map<String, Collection<DB2Authority>> auths = get(futures.get(i));
+            if (auths == null) {
+                auths = DB2AuthorityReader.emptyAuthorities(allAuths.keySet());
+                new DB2AuthorityReader(callerStatements).readAuthorities(queries[i], auths);
+            }
+            for (Map.Entry<String, Collection<DB2Authority>> entry : auths.entrySet()) {
+                allAuths.get(entry.getKey()).addAll(entry.getValue());
+            }
+        }
+        return allAuths;
+    }
+
+    private <T> T get(Future<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while reading db2 authorities", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw ConnectorException.wrap(e.getCause());
+        }
+    }
+
+    /**
+     * Takes read connection, returns null when pooled connection is not
+     * available.
+     */
+    private DB2StatementCache takeConnection() {
+        final DB2StatementCache conn = pool != null ? pool.tryBorrow() : takeOwnConnection();
+        if (conn == null) {
+            return null;
+        }
+        synchronized (usedConnections) {
+            if (!disposed) {
+                usedConnections.add(conn);
+                return conn;
+            }
+        }
+        releaseConnection(conn, false);
+        throw new IllegalStateException("Parallel authority reader is disposed");
+    }
+
+    private DB2StatementCache takeOwnConnection() {
+        DB2StatementCache conn = idleConnections.poll();
+        if (conn != null) {
+            return conn;
+        }
+        if (createdConnections.incrementAndGet() <= parallelism) {
+            try {
+                return new DB2StatementCache(cfg.createAdminConnection());
+            } catch (RuntimeException e) {
+                createdConnections.decrementAndGet();
+                throw e;
+            }
+        }
+        createdConnections.decrementAndGet();
+        try {
+            return idleConnections.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while waiting for read connection", e);
+        }
+    }
+
+    /**
+     * Returns connection back to idle connections. Connection that failed is
+     * closed, it is possibly broken and new one will be created on demand.
+     * Connection returned after reader was disposed is closed.
+     */
+    private void releaseConnection(DB2StatementCache conn, boolean ok) {
+        synchronized (usedConnections) {
+            usedConnections.remove(conn);
+        }
+        if (pool != null) {
+            // pool rolls back failed connection, closed connection is discarded
+            pool.giveBack(conn, !ok);
+            return;
+        }
+        if (ok) {
+            idleConnections.add(conn);
+            // dispose closes idle connections after it sets disposed flag
+            if (!disposed || !idleConnections.remove(conn)) {
+                return;
+            }
+        }
+        closeConnection(conn, true);
+        createdConnections.decrementAndGet();
+    }
+
+    private void closeConnection(DB2StatementCache conn, boolean rollback) {
+        conn.close();
+        if (rollback) {
+            SQLUtil.rollbackQuietly(conn.getConnection());
+        }
+        SQLUtil.closeQuietly(conn.getConnection());
+    }
+
+    /**
+     * Stops reading threads and closes all read connections, also those in
+     * use by running tasks. Their queries fail and the tasks return
+     * connections, pooled connections are discarded by the pool.
+     */
+    private void dispose() {
+        final List<DB2StatementCache> used;
+        synchronized (usedConnections) {
+            disposed = true;
+            used = new ArrayList<DB2StatementCache>(usedConnections);
+        }
+        executor.shutdownNow();
+        for (DB2StatementCache conn : used) {
+            // statements are closed by the task, closing connection cancels its query
+            SQLUtil.closeQuietly(conn.getConnection());
+        }
+        DB2StatementCache conn;
+        while ((conn = idleConnections.poll()) != null) {
+            closeConnection(conn, false);
+        }
+        if (pool != null) {
+            pool.release();
+        }
+        LOG.ok("Parallel authority reader disposed");
+    }
+}
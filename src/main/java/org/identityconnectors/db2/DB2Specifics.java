@@ -22,6 +22,10 @@
  */
 package org.identityconnectors.db2;
 
+import static org.identityconnectors.db2.DB2Messages.CONNECTION_PROPERTY_INVALID;
+import static org.identityconnectors.db2.DB2Messages.CONNECTION_PROPERTY_UNKNOWN;
+import static org.identityconnectors.db2.DB2Messages.CONNECTION_PROPERTY_VALUE_INVALID;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -33,13 +37,17 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.identityconnectors.common.IOUtil;
+import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.dbcommon.SQLUtil;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ConnectorMessages;
 
 /**
  * Here we hide DB2 specifics constants,mappings,restrictions ...
@@ -93,6 +101,97 @@ abstract class DB2Specifics {
         return DATABASE_AUTH_TABLE_MAP.get(authType);
     }
 
+    // Driver properties of IBM Data Server Driver for JDBC and SQLJ we accept
+    // in configuration, mapped to type of their value.
+    private static final Map<String, Class<?>> CONNECTION_PROPERTY_TYPES =
+            new HashMap<String, Class<?>>();
+    static {
+        CONNECTION_PROPERTY_TYPES.put("fetchSize", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("queryDataSize", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("progressiveStreaming", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("streamBufferSize", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("blockingReadConnectionTimeout", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("loginTimeout", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("keepAliveTimeout", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("enableSeamlessFailover", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("enableClientAffinitiesList", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("maxRetriesForClientReroute", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("retryIntervalForClientReroute", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("securityMechanism", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("traceLevel", Integer.class);
+        CONNECTION_PROPERTY_TYPES.put("deferPrepares", Boolean.class);
+        CONNECTION_PROPERTY_TYPES.put("fullyMaterializeLobData", Boolean.class);
+        CONNECTION_PROPERTY_TYPES.put("retrieveMessagesFromServerOnGetMessage", Boolean.class);
+        CONNECTION_PROPERTY_TYPES.put("sslConnection", Boolean.class);
+        CONNECTION_PROPERTY_TYPES.put("currentSchema", String.class);
+        CONNECTION_PROPERTY_TYPES.put("clientProgramName", String.class);
+        CONNECTION_PROPERTY_TYPES.put("clientApplicationInformation", String.class);
+    }
+
+    /**
+     * Parses grant string in the form generated by
+     * {@link DB2AuthorityTable#generateGrant(DB2Authority)}, e.g 'SELECT ON
+     * HR.SALARY', 'CONNECT ON DATABASE' or 'USE OF TABLESPACE USERSPACE1'.
+     *
+     * @return authority of passed user or null when grant is not one
+     *         privilege on one object we understand, e.g. 'ALL ON HR.SALARY'
+     *         or 'SELECT,INSERT ON HR.SALARY'
+     */
+    static DB2Authority parseGrant(String grant, String user) {
+        final DB2Authority auth = parseGrantTokens(grant, user);
+        return auth != null && DB2AuthorityReader.isKnownPrivilege(auth) ? auth : null;
+    }
+
+    private static DB2Authority parseGrantTokens(String grant, String user) {
+        String[] tokens = grant.trim().toUpperCase().split("\\s+");
+        if (tokens.length == 3 && "ON".equals(tokens[1])) {
+            if ("DATABASE".equals(tokens[2])) {
+                return new DB2Authority(AUTH_TYPE_DATABASE, tokens[0], "", user);
+            }
+            return new DB2Authority(AUTH_TYPE_TABLE, tokens[0], tokens[2], user);
+        }
+        if (tokens.length == 4) {
+            String connector = tokens[1] + " " + tokens[2];
+            if ("ON TABLE".equals(connector)) {
+                return new DB2Authority(AUTH_TYPE_TABLE, tokens[0], tokens[3], user);
+            }
+            for (Map.Entry<String, DB2AuthorityTable> entry : DATABASE_AUTH_TABLE_MAP.entrySet()) {
+                if (connector.equals(entry.getValue().sqlRevokeFunctionObjectConnector)) {
+                    return new DB2Authority(entry.getKey(), tokens[0], tokens[3], user);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns object of grant, also of grant we cannot parse, e.g.
+     * 'HR.SALARY' of 'ALL ON HR.SALARY'. Object of database grant is empty
+     * string. Returns null when grant has no ON clause.
+     */
+    static String grantObject(String grant) {
+        final String[] tokens = grant.trim().toUpperCase().split("\\s+");
+        if (tokens.length < 3
+                || !Arrays.asList(tokens).subList(1, tokens.length - 1).contains("ON")) {
+            return null;
+        }
+        final String object = tokens[tokens.length - 1];
+        return "DATABASE".equals(object) && "ON".equals(tokens[tokens.length - 2]) ? "" : object;
+    }
+
+    /**
+     * Returns grant in the form we read it back from authority tables, so
+     * grants can be compared with current authorities. Grants we cannot parse
+     * are just uppercased with collapsed whitespaces.
+     */
+    static String normalizeGrant(String grant) {
+        DB2Authority auth = parseGrant(grant, null);
+        if (auth != null) {
+            return authType2DB2AuthorityTable(auth.authorityType).generateGrant(auth);
+        }
+        return grant.trim().toUpperCase().replaceAll("\\s+", " ");
+    }
+
     /** List of db2 keywords. */
     private static volatile Collection<String> excludeNames;
 
@@ -184,6 +283,31 @@ abstract class DB2Specifics {
         }
     }
 
+    /**
+     * Test SQL found for databases, keyed by target key of configuration.
+     * Each database is probed once per JVM.
+     */
+    private static final Map<String, String> TEST_SQL_CACHE =
+            new ConcurrentHashMap<String, String>();
+
+    /**
+     * Returns test SQL of the database configuration connects to. Test SQL
+     * set in configuration is used only by that configuration, otherwise we
+     * use cached test SQL or probe the database once.
+     */
+    static String findTestSQL(Connection connection, DB2Configuration cfg) {
+        if (StringUtil.isNotBlank(cfg.getTestSQL())) {
+            return cfg.getTestSQL();
+        }
+        final String target = cfg.getTargetKey();
+        String sql = TEST_SQL_CACHE.get(target);
+        if (sql == null) {
+            sql = findTestSQL(connection);
+            TEST_SQL_CACHE.put(target, sql);
+        }
+        return sql;
+    }
+
     static String findTestSQL(Connection connection) {
         String[] testSQL =
                 new String[] { "select 1 from sysibm.dual", "select 1 from sysibm.SYSDUMMY1",
@@ -230,16 +354,105 @@ abstract class DB2Specifics {
             urlBuilder.append(":").append(info.getPort());
         }
         urlBuilder.append("/").append(info.getDatabase());
-        return SQLUtil.getDriverMangerConnection(info.getDriver(), urlBuilder.toString(), info
-                .getUser(), info.getPassword());
+        return SQLUtil.getDriverMangerConnection(info.getDriver(), appendConnectionProperties(
+                urlBuilder.toString(), info.getProperties()), info.getUser(), info.getPassword());
     }
 
     static Connection createType2Connection(Type2ConnectionInfo info) {
         StringBuilder urlBuilder = new StringBuilder();
         urlBuilder.append("jdbc:").append(info.getSubprotocol()).append(':');
         urlBuilder.append(info.getAliasName());
-        return SQLUtil.getDriverMangerConnection(info.getDriver(), urlBuilder.toString(), info
-                .getUser(), info.getPassword());
+        return SQLUtil.getDriverMangerConnection(info.getDriver(), appendConnectionProperties(
+                urlBuilder.toString(), info.getProperties()), info.getUser(), info.getPassword());
+    }
+
+    /**
+     * Appends driver properties to JDBC URL using syntax of IBM Data Server
+     * Driver, that is <code>url:name1=value1;name2=value2;</code>. When url
+     * already contains properties, new ones are added after them.
+     *
+     * @param url
+     *            JDBC URL
+     * @param properties
+     *            typed driver properties
+     * @return url with properties
+     */
+    static String appendConnectionProperties(String url, Map<String, Object> properties) {
+        if (properties == null || properties.isEmpty()) {
+            return url;
+        }
+        StringBuilder urlBuilder = new StringBuilder(url);
+        if (!url.endsWith(";")) {
+            urlBuilder.append(':');
+        }
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            urlBuilder.append(entry.getKey()).append('=').append(entry.getValue()).append(';');
+        }
+        return urlBuilder.toString();
+    }
+
+    /**
+     * Parses driver properties in <code>name=value</code> format and converts
+     * values to the types of {@link #CONNECTION_PROPERTY_TYPES}.
+     *
+     * @param properties
+     *            properties in name=value format, can be null
+     * @param msgs
+     *            messages used to report invalid property
+     * @return typed properties in the order they were specified
+     * @throws IllegalArgumentException
+     *             when property has invalid format, is unknown or its value
+     *             cannot be converted
+     */
+    static Map<String, Object> parseConnectionProperties(String[] properties,
+            ConnectorMessages msgs) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        if (properties == null) {
+            return result;
+        }
+        for (String property : properties) {
+            if (StringUtil.isBlank(property)) {
+                continue;
+            }
+            int index = property.indexOf('=');
+            if (index < 1) {
+                throw new IllegalArgumentException(msgs.format(CONNECTION_PROPERTY_INVALID, null,
+                        property));
+            }
+            String name = property.substring(0, index).trim();
+            String value = property.substring(index + 1).trim();
+            Class<?> type = CONNECTION_PROPERTY_TYPES.get(name);
+            if (type == null) {
+                throw new IllegalArgumentException(msgs.format(CONNECTION_PROPERTY_UNKNOWN, null,
+                        name));
+            }
+            result.put(name, convertConnectionProperty(name, value, type, msgs));
+        }
+        return result;
+    }
+
+    private static Object convertConnectionProperty(String name, String value, Class<?> type,
+            ConnectorMessages msgs) {
+        if (Integer.class.equals(type)) {
+            try {
+                return Integer.valueOf(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(msgs.format(
+                        CONNECTION_PROPERTY_VALUE_INVALID, null, name, value, "integer"), e);
+            }
+        }
+        if (Boolean.class.equals(type)) {
+            if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+                return Boolean.valueOf(value);
+            }
+            throw new IllegalArgumentException(msgs.format(CONNECTION_PROPERTY_VALUE_INVALID,
+                    null, name, value, "true or false"));
+        }
+        if (value.length() == 0 || value.indexOf(';') >= 0) {
+            throw new IllegalArgumentException(msgs.format(CONNECTION_PROPERTY_VALUE_INVALID,
+                    null, name, value, "non empty string without ;"));
+        }
+        return value;
     }
 
     static Connection createDataSourceConnection(String dsName, Hashtable<?, ?> env) {
@@ -0,0 +1,131 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.dbcommon.SQLUtil;
+
+/**
+ * Executes GRANT and REVOKE statements using JDBC batch. Statements are sent
+ * to database when batch is full and on {@link #flush()}, so we pay one round
+ * trip per batch instead of one per statement. When batch size is 1, each
+ * statement is executed immediately. <br/>
+ * When a statement of the batch fails, we throw SQLException naming the
+ * failing statement, so the error message tells which grant failed.
+ */
+final class DB2StatementBatch {
+    private final static Log LOG = Log.getLog(DB2StatementBatch.class);
+    private final Connection conn;
+    private final int batchSize;
+    private final List<String> pending = new ArrayList<String>();
+    private Statement statement;
+
+    DB2StatementBatch(Connection conn, int batchSize) {
+        this.conn = conn;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Adds statement to the batch, batch is executed when it is full.
+     */
+    void add(String sql) throws SQLException {
+        if (statement == null) {
+            statement = conn.createStatement();
+        }
+        if (batchSize <= 1) {
+            try {
+                statement.execute(sql);
+            } catch (SQLException e) {
+                LOG.error(e, "Error executing sql {0}", sql);
+                throw e;
+            }
+            return;
+        }
+        statement.addBatch(sql);
+        pending.add(sql);
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Executes all pending statements.
+     */
+    void flush() throws SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            statement.executeBatch();
+        } catch (BatchUpdateException e) {
+            final String sql = pending.get(failedIndex(e));
+            LOG.error(e, "Error executing sql {0}", sql);
+            throw failedStatement(sql, e);
+        } finally {
+            // driver resets batch of the statement after executeBatch
+            pending.clear();
+        }
+    }
+
+    /**
+     * Finds index of failed statement. Driver either stops at first failed
+     * statement and returns counts of executed statements only, or continues
+     * and marks failed statements with EXECUTE_FAILED.
+     */
+    private int failedIndex(BatchUpdateException e) {
+        final int[] counts = e.getUpdateCounts();
+        if (counts == null) {
+            return 0;
+        }
+        for (int i = 0; i < counts.length && i < pending.size(); i++) {
+            if (counts[i] == Statement.EXECUTE_FAILED) {
+                return i;
+            }
+        }
+        return Math.min(counts.length, pending.size() - 1);
+    }
+
+    private SQLException failedStatement(String sql, BatchUpdateException e) {
+        final SQLException cause = e.getNextException() != null ? e.getNextException() : e;
+        final SQLException failed =
+                new SQLException("Error executing sql " + sql + " : "
+                        + new SQLMsgRetriever().retrieveMsg(cause), cause.getSQLState(), cause
+                        .getErrorCode());
+        failed.initCause(e);
+        return failed;
+    }
+
+    void close() {
+        pending.clear();
+        SQLUtil.closeQuietly(statement);
+        statement = null;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.identityconnectors.common.Assertions;
+import org.identityconnectors.dbcommon.SQLUtil;
+
+/**
+ * Cache of prepared catalog queries of one connection. Statements are
+ * prepared once and reused for the lifetime of the connection, so DB2 can
+ * reuse access plan from its dynamic statement cache instead of compiling
+ * query for each user. All statements are prepared with forward only and read
+ * only cursor, we just read rows once from begin to end. <br/>
+ * Cache is bounded, least recently used statement is closed when cache is
+ * full. Cache is not thread safe, as the connection is used by one thread at
+ * a time.
+ */
+final class DB2StatementCache {
+    /** Maximal number of cached statements per connection. */
+    static final int MAX_STATEMENTS = 64;
+    private final Connection conn;
+    /** Time connection was last used successfully */
+    private long lastUsed;
+    private final Map<String, PreparedStatement> statements =
+            new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > MAX_STATEMENTS) {
+                        SQLUtil.closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    DB2StatementCache(Connection conn) {
+        Assertions.nullCheck(conn, "conn");
+        this.conn = conn;
+    }
+
+    Connection getConnection() {
+        return conn;
+    }
+
+    /**
+     * Records that connection was used successfully, see
+     * {@link DB2ConnectionValidator}.
+     */
+    void markUsed() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Returns prepared statement for passed query with cleared parameters.
+     * Caller must not close returned statement, just its result set.
+     */
+    PreparedStatement prepareQuery(String sql) throws SQLException {
+        PreparedStatement st = statements.get(sql);
+        if (st != null) {
+            st.clearParameters();
+            return st;
+        }
+        st = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        statements.put(sql, st);
+        return st;
+    }
+
+    /**
+     * Closes all cached statements, connection stays open.
+     */
+    void close() {
+        List<PreparedStatement> toClose = new ArrayList<PreparedStatement>(statements.values());
+        statements.clear();
+        for (PreparedStatement st : toClose) {
+            SQLUtil.closeQuietly(st);
+        }
+    }
+}
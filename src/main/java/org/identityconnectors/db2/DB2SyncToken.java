@@ -0,0 +1,141 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.identityconnectors.common.Base64;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.SyncToken;
+
+/**
+ * Encoding of sync token. DB2 does not keep any change log of grants, so the
+ * token holds the digest of grants of each user seen by last sync. The value
+ * of the token is the compressed list of <code>user, digest</code> pairs
+ * encoded in base64 and prefixed by version of the format.
+ */
+final class DB2SyncToken {
+    private static final String VERSION = "1:";
+    private static final String CHARSET = "UTF-8";
+    /** Number of bytes of MD5 hash kept in the digest */
+    private static final int DIGEST_BYTES = 8;
+
+    private DB2SyncToken() {
+    }
+
+    /**
+     * Computes digest of grants of one user. Order of grants does not matter.
+     */
+    static String digest(Collection<String> grants) {
+        final List<String> sorted = new ArrayList<String>(grants);
+        Collections.sort(sorted);
+        try {
+            final MessageDigest md = MessageDigest.getInstance("MD5");
+            for (String grant : sorted) {
+                md.update(grant.getBytes(CHARSET));
+                md.update((byte) '\n');
+            }
+            final byte[] hash = md.digest();
+            final StringBuilder digest = new StringBuilder(DIGEST_BYTES * 2);
+            for (int i = 0; i < DIGEST_BYTES; i++) {
+                digest.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+                digest.append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return digest.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new ConnectorException("Cannot compute digest of grants", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new ConnectorException("Cannot compute digest of grants", e);
+        }
+    }
+
+    /**
+     * Creates sync token from digests of users.
+     */
+    static SyncToken encode(Map<String, String> digests) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            final DeflaterOutputStream out = new DeflaterOutputStream(bytes);
+            for (Map.Entry<String, String> entry : digests.entrySet()) {
+                out.write((entry.getKey() + '\t' + entry.getValue() + '\n').getBytes(CHARSET));
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new ConnectorException("Cannot encode sync token", e);
+        }
+        return new SyncToken(VERSION + Base64.encode(bytes.toByteArray()));
+    }
+
+    /**
+     * Reads digests of users from sync token. Null token means no user was
+     * seen yet.
+     *
+     * @throws IllegalArgumentException
+     *             when token was not created by this connector
+     */
+    static SortedMap<String, String> decode(SyncToken token) {
+        final SortedMap<String, String> digests = new TreeMap<String, String>();
+        if (token == null) {
+            return digests;
+        }
+        final Object value = token.getValue();
+        if (!(value instanceof String) || !((String) value).startsWith(VERSION)) {
+            throw new IllegalArgumentException("Invalid sync token : " + value);
+        }
+        try {
+            final byte[] bytes = Base64.decode(((String) value).substring(VERSION.length()));
+            final BufferedReader in =
+                    new BufferedReader(new InputStreamReader(new InflaterInputStream(
+                            new ByteArrayInputStream(bytes)), CHARSET));
+            String line;
+            while ((line = in.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    throw new IllegalArgumentException("Invalid sync token : " + value);
+                }
+                digests.put(line.substring(0, tab), line.substring(tab + 1));
+            }
+            in.close();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid sync token : " + value, e);
+        }
+        return digests;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Coalesces updates of grants of the same user. First update of user opens
+ * pending update and waits for window, other updates of the user submitted
+ * within the window are merged into the pending update. Then first caller
+ * applies net delta of all merged updates in one transaction. When the
+ * transaction fails and more updates were merged, update of each caller is
+ * applied again alone, so each caller gets failure of its own update only.
+ * Updates of one user are applied one after another, next window of the user
+ * can be open while previous one is applied, but it is applied after previous
+ * one is committed. So update waits at most for the window plus time of
+ * previous and its own transaction. <br/>
+ * Coalescer is shared by all connector instances of the same configuration and
+ * window in the JVM, see {@link #acquire(String, long)}.
+ */
+final class DB2UpdateCoalescer {
+    /** Shared coalescers keyed by configuration */
+    private static final Map<String, DB2UpdateCoalescer> SHARED_COALESCERS =
+            new HashMap<String, DB2UpdateCoalescer>();
+
+    /**
+     * Applies net delta of merged updates of user in one transaction.
+     */
+    interface Applier {
+        /**
+         * @param replace
+         *            grants replacing all grants of user or null when grants
+         *            are not replaced
+         * @param add
+         *            grants to add
+         * @param remove
+         *            grants to remove
+         */
+        void apply(String user, Collection<String> replace, Collection<String> add,
+                Collection<String> remove);
+    }
+
+    /** Update submitted by one caller */
+    private static final class Part {
+        final Collection<String> replace;
+        final Collection<String> add;
+        final Collection<String> remove;
+        RuntimeException failure;
+
+        Part(Collection<String> replace, Collection<String> add, Collection<String> remove) {
+            this.replace = replace;
+            this.add = add;
+            this.remove = remove;
+        }
+    }
+
+    /**
+     * Net delta of updates of one user merged within window. Grants are keyed
+     * by normalized grant.
+     */
+    private static final class PendingUpdate {
+        Map<String, String> replace;
+        final Map<String, String> add = new LinkedHashMap<String, String>();
+        final Map<String, String> remove = new LinkedHashMap<String, String>();
+        /** Merged updates in order of submission */
+        final List<Part> parts = new ArrayList<Part>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Part merge(Collection<String> replaceGrants, Collection<String> addGrants,
+                Collection<String> removeGrants) {
+            final Part part = new Part(replaceGrants, addGrants, removeGrants);
+            parts.add(part);
+            if (replaceGrants != null) {
+                replace = new LinkedHashMap<String, String>();
+                add.clear();
+                remove.clear();
+                for (String grant : replaceGrants) {
+                    replace.put(DB2Specifics.normalizeGrant(grant), grant);
+                }
+            }
+            for (String grant : removeGrants) {
+                final String key = DB2Specifics.normalizeGrant(grant);
+                add.remove(key);
+                if (replace != null) {
+                    replace.remove(key);
+                } else {
+                    remove.put(key, grant);
+                }
+            }
+            for (String grant : addGrants) {
+                final String key = DB2Specifics.normalizeGrant(grant);
+                remove.remove(key);
+                if (replace != null) {
+                    replace.put(key, grant);
+                } else {
+                    add.put(key, grant);
+                }
+            }
+            return part;
+        }
+    }
+
+    private final String key;
+    private final long window;
+    /** Updates open for merging, keyed by user, guarded by itself */
+    private final Map<String, PendingUpdate> pending = new HashMap<String, PendingUpdate>();
+    /**
+     * Last closed update of each user, applied or waiting for previous update
+     * of the user, guarded by {@link #pending}
+     */
+    private final Map<String, PendingUpdate> applying = new HashMap<String, PendingUpdate>();
+    /** Number of connector instances using coalescer, guarded by SHARED_COALESCERS */
+    private int references;
+
+    /**
+     * @param window
+     *            time in milliseconds updates of user are merged
+     */
+    DB2UpdateCoalescer(long window) {
+        this(null, window);
+    }
+
+    private DB2UpdateCoalescer(String key, long window) {
+        this.key = key;
+        this.window = window;
+    }
+
+    /**
+     * Returns coalescer shared by all connector instances using the same
+     * configuration key and window. Each call must be paired with
+     * {@link #release()}.
+     */
+    static DB2UpdateCoalescer acquire(String configurationKey, long window) {
+        final String key = configurationKey + '|' + window;
+        synchronized (SHARED_COALESCERS) {
+            DB2UpdateCoalescer coalescer = SHARED_COALESCERS.get(key);
+            if (coalescer == null) {
+                coalescer = new DB2UpdateCoalescer(key, window);
+                SHARED_COALESCERS.put(key, coalescer);
+            }
+            coalescer.references++;
+            return coalescer;
+        }
+    }
+
+    /**
+     * Releases coalescer, it is forgotten when last connector instance
+     * releases it. Updates still pending are applied by their callers.
+     */
+    void release() {
+        synchronized (SHARED_COALESCERS) {
+            if (--references == 0) {
+                SHARED_COALESCERS.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns number of shared coalescers.
+     */
+    static int getSharedCount() {
+        synchronized (SHARED_COALESCERS) {
+            return SHARED_COALESCERS.size();
+        }
+    }
+
+    /**
+     * Submits update of user and returns when update is applied. When update
+     * opens pending update of user, it is applied by passed applier, otherwise
+     * by applier of caller which opened the pending update. Caller gets
+     * failure of its own update only.
+     */
+    void submit(String user, Collection<String> replace, Collection<String> add,
+            Collection<String> remove, Applier applier) {
+        final String key = user.toUpperCase();
+        PendingUpdate update;
+        final Part part;
+        final boolean opened;
+        synchronized (pending) {
+            update = pending.get(key);
+            opened = update == null;
+            if (opened) {
+                update = new PendingUpdate();
+                pending.put(key, update);
+            }
+            part = update.merge(replace, add, remove);
+        }
+        if (opened) {
+            applyUpdate(key, user, update, applier);
+        } else {
+            awaitUpdate(update);
+        }
+        if (part.failure != null) {
+            throw part.failure;
+        }
+    }
+
+    private void awaitUpdate(PendingUpdate update) {
+        try {
+            update.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted while waiting for update", e);
+        }
+    }
+
+    private void applyUpdate(String key, String user, PendingUpdate update, Applier applier) {
+        try {
+            Thread.sleep(window);
+        } catch (InterruptedException e) {
+            // we apply what was merged so far
+            Thread.currentThread().interrupt();
+        }
+        final PendingUpdate previous;
+        synchronized (pending) {
+            // close the update, next update of user opens new window
+            pending.remove(key);
+            previous = applying.put(key, update);
+        }
+        try {
+            if (previous != null) {
+                // previous update must be committed before we read grants
+                awaitUpdate(previous);
+            }
+            apply(user, update, applier);
+        } catch (RuntimeException e) {
+            for (Part part : update.parts) {
+                part.failure = e;
+            }
+        } finally {
+            synchronized (pending) {
+                if (applying.get(key) == update) {
+                    applying.remove(key);
+                }
+            }
+            update.done.countDown();
+        }
+    }
+
+    /**
+     * Applies net delta, when it fails, update of each caller is applied
+     * alone in order of submission.
+     */
+    private void apply(String user, PendingUpdate update, Applier applier) {
+        try {
+            applier.apply(user, update.replace != null ? new ArrayList<String>(update.replace
+                    .values()) : null, new ArrayList<String>(update.add.values()),
+                    new ArrayList<String>(update.remove.values()));
+            return;
+        } catch (RuntimeException e) {
+            if (update.parts.size() == 1) {
+                update.parts.get(0).failure = e;
+                return;
+            }
+        }
+        for (Part part : update.parts) {
+            try {
+                applier.apply(user, part.replace, part.add, part.remove);
+            } catch (RuntimeException e) {
+                part.failure = e;
+            }
+        }
+    }
+
+    /**
+     * Returns number of users with pending update.
+     */
+    int size() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Returns number of users whose update is being applied.
+     */
+    int applyingSize() {
+        synchronized (pending) {
+            return applying.size();
+        }
+    }
+}
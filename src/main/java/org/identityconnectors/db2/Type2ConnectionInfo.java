@@ -22,6 +22,9 @@
  */
 package org.identityconnectors.db2;
 
+import java.util.Collections;
+import java.util.Map;
+
 import org.identityconnectors.common.security.GuardedString;
 
 final class Type2ConnectionInfo {
@@ -30,6 +33,7 @@ final class Type2ConnectionInfo {
     private String subprotocol;
     private String user;
     private GuardedString password;
+    private Map<String, Object> properties = Collections.emptyMap();
 
     private Type2ConnectionInfo() {
     }
@@ -54,12 +58,17 @@ final class Type2ConnectionInfo {
         return password;
     }
 
+    Map<String, Object> getProperties() {
+        return properties;
+    }
+
     static class Type2ConnectionInfoBuilder {
         private String driver;
         private String aliasName;
         private String subprotocol;
         private String user;
         private GuardedString password;
+        private Map<String, Object> properties = Collections.emptyMap();
 
         String getDriver() {
             return driver;
@@ -106,6 +115,15 @@ final class Type2ConnectionInfo {
             return this;
         }
 
+        Map<String, Object> getProperties() {
+            return properties;
+        }
+
+        Type2ConnectionInfoBuilder setProperties(Map<String, Object> properties) {
+            this.properties = properties;
+            return this;
+        }
+
         Type2ConnectionInfo build() {
             Type2ConnectionInfo info = new Type2ConnectionInfo();
             info.aliasName = aliasName;
@@ -113,6 +131,7 @@ final class Type2ConnectionInfo {
             info.password = password;
             info.subprotocol = subprotocol;
             info.user = user;
+            info.properties = properties;
             return info;
         }
 
@@ -22,6 +22,9 @@
  */
 package org.identityconnectors.db2;
 
+import java.util.Collections;
+import java.util.Map;
+
 import org.identityconnectors.common.security.GuardedString;
 
 final class Type4ConnectionInfo {
@@ -32,6 +35,7 @@ final class Type4ConnectionInfo {
     private String database;
     private String user;
     private GuardedString password;
+    private Map<String, Object> properties = Collections.emptyMap();
 
     private Type4ConnectionInfo() {
     }
@@ -64,6 +68,10 @@ final class Type4ConnectionInfo {
         return password;
     }
 
+    Map<String, Object> getProperties() {
+        return properties;
+    }
+
     static class Type4ConnectionInfoBuilder {
         private String driver;
         private String host;
@@ -72,6 +80,7 @@ final class Type4ConnectionInfo {
         private String database;
         private String user;
         private GuardedString password;
+        private Map<String, Object> properties = Collections.emptyMap();
 
         String getDriver() {
             return driver;
@@ -136,6 +145,15 @@ final class Type4ConnectionInfo {
             return this;
         }
 
+        Map<String, Object> getProperties() {
+            return properties;
+        }
+
+        Type4ConnectionInfoBuilder setProperties(Map<String, Object> properties) {
+            this.properties = properties;
+            return this;
+        }
+
         Type4ConnectionInfo build() {
             Type4ConnectionInfo info = new Type4ConnectionInfo();
             info.database = database;
@@ -145,6 +163,7 @@ final class Type4ConnectionInfo {
             info.port = port;
             info.subprotocol = subprotocol;
             info.user = user;
+            info.properties = properties;
             return info;
         }
     }
@@ -0,0 +1,108 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test of authority cache.
+ */
+public class DB2AuthorityCacheTest {
+
+    private static Map<String, Collection<DB2Authority>> auths(String user) {
+        return Collections.<String, Collection<DB2Authority>> singletonMap(user, Collections
+                .singletonList(new DB2Authority(DB2Specifics.AUTH_TYPE_DATABASE, "CONNECT", "",
+                        user)));
+    }
+
+    /** Test hits, misses and invalidation. */
+    @Test
+    public void testGetAndInvalidate() {
+        DB2AuthorityCache cache = new DB2AuthorityCache(60000, 10);
+        assertNull(cache.get("john"));
+        cache.putAll(auths("JOHN"), cache.stamp());
+        assertNotNull(cache.get("john"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        cache.invalidate("John");
+        assertNull(cache.get("JOHN"));
+        assertEquals(2, cache.getMisses());
+    }
+
+    /** Test that authorities read before invalidation are not cached. */
+    @Test
+    public void testStaleReadIsNotCached() {
+        DB2AuthorityCache cache = new DB2AuthorityCache(60000, 10);
+        long stamp = cache.stamp();
+        cache.invalidate("JOHN");
+        cache.putAll(auths("JOHN"), stamp);
+        assertNull(cache.get("JOHN"));
+    }
+
+    /** Test that shared cache is keyed by ttl and size and released. */
+    @Test
+    public void testSharedCache() {
+        final int shared = DB2AuthorityCache.getSharedCount();
+        DB2AuthorityCache first = DB2AuthorityCache.acquire("test", 60000, 10);
+        DB2AuthorityCache same = DB2AuthorityCache.acquire("test", 60000, 10);
+        DB2AuthorityCache otherTTL = DB2AuthorityCache.acquire("test", 1000, 10);
+        DB2AuthorityCache otherSize = DB2AuthorityCache.acquire("test", 60000, 20);
+        assertSame(first, same);
+        assertNotSame(first, otherTTL);
+        assertNotSame(first, otherSize);
+        assertEquals(shared + 3, DB2AuthorityCache.getSharedCount());
+        first.release();
+        assertEquals(shared + 3, DB2AuthorityCache.getSharedCount());
+        same.release();
+        otherTTL.release();
+        otherSize.release();
+        assertEquals(shared, DB2AuthorityCache.getSharedCount());
+    }
+
+    /** Test expiration and eviction of least recently used user. */
+    @Test
+    public void testExpirationAndEviction() {
+        DB2AuthorityCache expired = new DB2AuthorityCache(0, 10);
+        expired.putAll(auths("JOHN"), expired.stamp());
+        assertNull(expired.get("JOHN"));
+        DB2AuthorityCache cache = new DB2AuthorityCache(60000, 2);
+        cache.putAll(auths("A"), cache.stamp());
+        cache.putAll(auths("B"), cache.stamp());
+        cache.get("A");
+        cache.putAll(auths("C"), cache.stamp());
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("A"));
+        assertNull(cache.get("B"));
+    }
+}
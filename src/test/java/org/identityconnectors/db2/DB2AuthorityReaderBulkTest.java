@@ -0,0 +1,196 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test of reading authorities of more users at once, rows of authority tables
+ * are served by fake connection.
+ */
+public class DB2AuthorityReaderBulkTest {
+
+    /** Rows of authority tables keyed by table name. */
+    private final Map<String, List<Map<String, String>>> tables =
+            new HashMap<String, List<Map<String, String>>>();
+    /** Grantees bound to executed queries. */
+    private final List<List<String>> bound = new ArrayList<List<String>>();
+
+    private void addRow(String table, String grantee, String objectName, String column) {
+        Map<String, String> row = new HashMap<String, String>();
+        row.put("GRANTEE", grantee);
+        row.put("OBJECTNAME", objectName);
+        row.put(column, "Y");
+        List<Map<String, String>> rows = tables.get(table);
+        if (rows == null) {
+            rows = new ArrayList<Map<String, String>>();
+            tables.put(table, rows);
+        }
+        rows.add(row);
+    }
+
+    private Connection connection() {
+        return proxy(Connection.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("prepareStatement".equals(method.getName())) {
+                    return statement((String) args[0]);
+                }
+                if ("close".equals(method.getName())) {
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private PreparedStatement statement(final String sql) {
+        final List<String> grantees = new ArrayList<String>();
+        return proxy(PreparedStatement.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("setString".equals(method.getName())) {
+                    grantees.add((String) args[1]);
+                    return null;
+                }
+                if ("executeQuery".equals(method.getName())) {
+                    bound.add(grantees);
+                    return resultSet(rows(sql, grantees));
+                }
+                if ("close".equals(method.getName())) {
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private List<Map<String, String>> rows(String sql, List<String> grantees) {
+        final List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+        for (Map.Entry<String, List<Map<String, String>>> table : tables.entrySet()) {
+            if (!sql.contains(" FROM " + table.getKey() + " ")) {
+                continue;
+            }
+            for (Map<String, String> row : table.getValue()) {
+                if (!sql.contains(" IN (") || grantees.contains(row.get("GRANTEE").trim())) {
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static ResultSet resultSet(List<Map<String, String>> rows) {
+        final Iterator<Map<String, String>> it = rows.iterator();
+        return proxy(ResultSet.class, new InvocationHandler() {
+            private Map<String, String> row;
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("next".equals(method.getName())) {
+                    row = it.hasNext() ? it.next() : null;
+                    return row != null;
+                }
+                if ("getString".equals(method.getName())) {
+                    final String value = row.get(args[0]);
+                    return value != null || !((String) args[0]).startsWith("AUTH") ? value : "N";
+                }
+                if ("close".equals(method.getName())) {
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                handler));
+    }
+
+    private static Set<String> grants(Collection<DB2Authority> auths) {
+        final Set<String> grants = new HashSet<String>();
+        for (DB2Authority auth : auths) {
+            grants.add(DB2Specifics.authType2DB2AuthorityTable(auth.authorityType).generateGrant(
+                    auth));
+        }
+        return grants;
+    }
+
+    private void addTestRows() {
+        // AUTH4 of database query is CONNECT, AUTH5 and AUTH6 of table query
+        // are INSERT and SELECT
+        addRow("SYSIBM.SYSDBAUTH A", "JOHN    ", "", "AUTH4");
+        addRow("SYSIBM.SYSTABAUTH A", "JOHN    ", "HR.SALARY", "AUTH6");
+        addRow("SYSIBM.SYSTABAUTH A", "MARY", "HR.SALARY", "AUTH5");
+        addRow("SYSIBM.SYSTABAUTH A", "OTHER", "HR.SALARY", "AUTH6");
+    }
+
+    /** Test that authorities of page of users are grouped by grantee. */
+    @Test
+    public void testReadAllAuthoritiesOfUsers() throws Exception {
+        addTestRows();
+        Map<String, Collection<DB2Authority>> auths =
+                new DB2AuthorityReader(connection()).readAllAuthorities(Arrays.asList("john",
+                        "mary", "nobody"));
+        assertEquals(Arrays.asList("JOHN", "MARY", "NOBODY"), new ArrayList<String>(auths
+                .keySet()));
+        assertEquals(new HashSet<String>(Arrays.asList("CONNECT ON DATABASE",
+                "SELECT ON HR.SALARY")), grants(auths.get("JOHN")));
+        assertEquals(new HashSet<String>(Arrays.asList("INSERT ON HR.SALARY")), grants(auths
+                .get("MARY")));
+        assertEquals(0, auths.get("NOBODY").size());
+        // each authority table is queried once, parameters rounded up to
+        // power of two repeat the last user
+        assertEquals(DB2AuthorityReader.AuthorityQuery.values().length, bound.size());
+        assertEquals(Arrays.asList("JOHN", "MARY", "NOBODY", "NOBODY"), bound.get(0));
+    }
+
+    /** Test that scan of all grantees keeps only passed users. */
+    @Test
+    public void testReadAllUsersAuthorities() throws Exception {
+        addTestRows();
+        Map<String, Collection<DB2Authority>> auths =
+                new DB2AuthorityReader(connection()).readAllUsersAuthorities(Arrays
+                        .asList("MARY"));
+        assertEquals(1, auths.size());
+        assertEquals(new HashSet<String>(Arrays.asList("INSERT ON HR.SALARY")), grants(auths
+                .get("MARY")));
+    }
+}
@@ -22,8 +22,13 @@
  */
 package org.identityconnectors.db2;
 
+import static org.testng.AssertJUnit.assertEquals;
+
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.identityconnectors.dbcommon.SQLUtil;
 import org.identityconnectors.test.common.TestHelpers;
@@ -83,6 +88,56 @@ public class DB2AuthorityReaderTest {
         testee.readAllAuthorities(testUser);
     }
 
+    /**
+     * Test that consolidated read returns same authorities as reading each
+     * authority table separately
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void testReadAllAuthoritiesMatchesTableReads() throws SQLException {
+        Set<String> expected = new HashSet<String>();
+        addAll(expected, testee.readIndexAuthorities(testUser));
+        addAll(expected, testee.readSchemaAuthorities(testUser));
+        addAll(expected, testee.readServerAuthorities(testUser));
+        addAll(expected, testee.readTableAuthorities(testUser));
+        addAll(expected, testee.readTablespaceAuthorities(testUser));
+        addAll(expected, testee.readPackageAuthorities(testUser));
+        addAll(expected, testee.readDatabaseAuthorities(testUser));
+        Set<String> actual = new HashSet<String>();
+        addAll(actual, testee.readAllAuthorities(testUser));
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Test that reader with cached statements returns same authorities when
+     * the statements are reused
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void testReadAllAuthoritiesWithCachedStatements() throws SQLException {
+        Set<String> expected = new HashSet<String>();
+        addAll(expected, testee.readAllAuthorities(testUser));
+        DB2StatementCache statements = new DB2StatementCache(conn);
+        try {
+            DB2AuthorityReader cached = new DB2AuthorityReader(statements);
+            for (int i = 0; i < 2; i++) {
+                Set<String> actual = new HashSet<String>();
+                addAll(actual, cached.readAllAuthorities(testUser));
+                assertEquals(expected, actual);
+            }
+        } finally {
+            statements.close();
+        }
+    }
+
+    private static void addAll(Set<String> target, Collection<DB2Authority> auths) {
+        for (DB2Authority auth : auths) {
+            target.add(auth.toString());
+        }
+    }
+
     /**
      * Test reading index authorities
      *
@@ -23,8 +23,10 @@
 package org.identityconnectors.db2;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertTrue;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
@@ -406,6 +408,50 @@ public class DB2ConfigurationTest {
         assertEquals(cfg.getAdminAccount(), clone.getAdminAccount());
     }
 
+    /**
+     * Test that configurations differing in password or connection settings
+     * do not share state
+     */
+    @Test
+    public void testConfigurationKey() {
+        DB2Configuration cfg = createDB2Configuration();
+        cfg.setUrl("jdbc:db2://host:50000/SAMPLE");
+        cfg.setAdminAccount("admin");
+        cfg.setAdminPassword(new GuardedString("secret".toCharArray()));
+        DB2Configuration same = cfg.clone();
+        same.setAdminPassword(new GuardedString("secret".toCharArray()));
+        assertEquals(cfg.getConfigurationKey(), same.getConfigurationKey());
+        DB2Configuration rotated = cfg.clone();
+        rotated.setAdminPassword(new GuardedString("rotated".toCharArray()));
+        assertFalse(cfg.getConfigurationKey().equals(rotated.getConfigurationKey()));
+        assertFalse(cfg.getConfigurationKey().contains("secret"));
+        DB2Configuration props = cfg.clone();
+        props.setConnectionProperties(new String[] { "fetchSize=100" });
+        assertFalse(cfg.getConfigurationKey().equals(props.getConfigurationKey()));
+        DB2Configuration pool = cfg.clone();
+        pool.setAdminPoolMaxSize(5);
+        assertFalse(cfg.getConfigurationKey().equals(pool.getConfigurationKey()));
+    }
+
+    /**
+     * Test that connection properties are rejected with legacy type 2 driver
+     */
+    @Test
+    public void testConnectionPropertiesWithLegacyDriver() {
+        DB2Configuration conf = createDB2Configuration();
+        conf.setDatabaseName("myDBAlias");
+        conf.setAdminAccount("dummy");
+        conf.setAdminPassword(new GuardedString());
+        conf.setJdbcDriver(DB2Specifics.CLI_LEGACY_DRIVER);
+        conf.setConnectionProperties(new String[] { "fetchSize=100" });
+        try {
+            conf.validate();
+            Assert.fail("Connection properties must be rejected with legacy driver");
+        } catch (ConnectorException e) {
+            assertTrue(e.getMessage().contains("db2.connection.properties.with.legacy.driver"));
+        }
+    }
+
     private static DB2Configuration createDB2Configuration() {
         DB2Configuration cfg = new DB2Configuration();
         cfg.setConnectorMessages(TestHelpers.createDummyMessages());
@@ -0,0 +1,249 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Context;
+import javax.naming.spi.InitialContextFactory;
+import javax.sql.DataSource;
+
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.test.common.TestHelpers;
+import org.testng.annotations.Test;
+
+/**
+ * Test of admin connection pool, connections are served by fake datasource.
+ */
+public class DB2ConnectionPoolTest {
+
+    /** Counts of opened connections and rollbacks keyed by datasource name. */
+    private static final Map<String, AtomicInteger> COUNTS =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * Context returning fake datasource for any name.
+     */
+    public static class MockContextFactory implements InitialContextFactory {
+        public Context getInitialContext(Hashtable<?, ?> environment) {
+            return proxy(Context.class, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("lookup".equals(method.getName())) {
+                        return dataSource((String) args[0]);
+                    }
+                    if ("close".equals(method.getName())) {
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+    }
+
+    private static DataSource dataSource(final String name) {
+        return proxy(DataSource.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("getConnection".equals(method.getName())) {
+                    count(name).incrementAndGet();
+                    return connection(name);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static Connection connection(final String name) {
+        return proxy(Connection.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("isValid".equals(method.getName())) {
+                    return true;
+                }
+                if ("getAutoCommit".equals(method.getName())) {
+                    return false;
+                }
+                if ("rollback".equals(method.getName())) {
+                    count(name + ".rollback").incrementAndGet();
+                    return null;
+                }
+                if ("close".equals(method.getName())) {
+                    return null;
+                }
+                if ("createStatement".equals(method.getName())
+                        || "prepareStatement".equals(method.getName())) {
+                    return statement();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /** Answers the test SQL the pool runs on idle connections */
+    private static PreparedStatement statement() {
+        return proxy(PreparedStatement.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("executeQuery".equals(method.getName())) {
+                    return proxy(ResultSet.class, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            return null;
+                        }
+                    });
+                }
+                if ("close".equals(method.getName())) {
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                handler));
+    }
+
+    private static AtomicInteger count(String name) {
+        COUNTS.putIfAbsent(name, new AtomicInteger());
+        return COUNTS.get(name);
+    }
+
+    private static DB2Configuration createConfiguration(String dataSource, int maxSize) {
+        DB2Configuration cfg = new DB2Configuration();
+        cfg.setConnectorMessages(TestHelpers.createDummyMessages());
+        cfg.setDataSource(dataSource);
+        cfg.setAdminAccount("user");
+        cfg.setAdminPassword(new GuardedString(new char[] { 't' }));
+        cfg.setDsJNDIEnv(new String[] { "java.naming.factory.initial="
+                + MockContextFactory.class.getName() });
+        cfg.setPort(null);
+        cfg.setJdbcDriver(null);
+        cfg.setJdbcSubProtocol(null);
+        cfg.setAdminPoolMaxSize(maxSize);
+        return cfg;
+    }
+
+    /** Waits until background warm-up fills pool with expected idle connections. */
+    private static void awaitIdle(DB2ConnectionPool pool, int expected)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getIdle() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, pool.getIdle());
+    }
+
+    /** Test that returned connection is leased again instead of opening new one. */
+    @Test
+    public void testBorrowReusesReturnedConnection() {
+        DB2ConnectionPool pool = DB2ConnectionPool.acquire(createConfiguration("reuseDS", 2));
+        try {
+            DB2StatementCache conn = pool.borrow();
+            pool.giveBack(conn, false);
+            assertSame(conn, pool.borrow());
+            pool.giveBack(conn, false);
+            assertEquals(1, count("reuseDS").get());
+            assertEquals(1, pool.getOpened());
+            assertEquals(0, count("reuseDS.rollback").get());
+        } finally {
+            pool.release();
+        }
+    }
+
+    /** Test that pool opens at most max size connections and rolls back failed lease. */
+    @Test
+    public void testMaxSize() {
+        DB2ConnectionPool pool = DB2ConnectionPool.acquire(createConfiguration("maxDS", 2));
+        try {
+            DB2StatementCache conn1 = pool.borrow();
+            DB2StatementCache conn2 = pool.borrow();
+            assertNull(pool.tryBorrow());
+            pool.giveBack(conn2, true);
+            assertEquals(1, count("maxDS.rollback").get());
+            assertSame(conn2, pool.tryBorrow());
+            pool.giveBack(conn1, false);
+            pool.giveBack(conn2, false);
+            assertEquals(2, count("maxDS").get());
+            assertEquals(2, pool.getOpened());
+            assertEquals(2, pool.getIdle());
+        } finally {
+            pool.release();
+        }
+    }
+
+    /** Test that eviction of idle connections keeps min size connections. */
+    @Test
+    public void testMinSize() throws InterruptedException {
+        DB2Configuration cfg = createConfiguration("minDS", 3);
+        cfg.setAdminPoolMinSize(1);
+        cfg.setAdminPoolIdleTimeout(0);
+        DB2ConnectionPool pool = DB2ConnectionPool.acquire(cfg);
+        try {
+            awaitIdle(pool, 1);
+            DB2StatementCache conn1 = pool.borrow();
+            DB2StatementCache conn2 = pool.borrow();
+            DB2StatementCache conn3 = pool.borrow();
+            assertEquals(3, pool.getOpened());
+            pool.giveBack(conn1, false);
+            pool.giveBack(conn2, false);
+            pool.giveBack(conn3, false);
+            Thread.sleep(10);
+            pool.maintain();
+            assertEquals(1, pool.getOpened());
+            assertEquals(1, pool.getIdle());
+        } finally {
+            pool.release();
+        }
+        assertEquals(0, pool.getOpened());
+    }
+
+    /** Test that warm-up opens requested connections, but not more than max size. */
+    @Test
+    public void testWarmUp() throws InterruptedException {
+        DB2Configuration cfg = createConfiguration("warmUpDS", 3);
+        cfg.setAdminPoolWarmUpSize(2);
+        DB2ConnectionPool pool = DB2ConnectionPool.acquire(cfg);
+        try {
+            awaitIdle(pool, 2);
+            assertEquals(2, count("warmUpDS").get());
+            pool.warmUp(5);
+            awaitIdle(pool, 3);
+            assertEquals(3, count("warmUpDS").get());
+            assertEquals(3, pool.getOpened());
+        } finally {
+            pool.release();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test of connection validator.
+ */
+public class DB2ConnectionValidatorTest {
+
+    /** Connection answering isValid and counting its calls. */
+    private static class IsValidHandler implements InvocationHandler {
+        final boolean valid;
+        final SQLException failure;
+        int calls;
+
+        IsValidHandler(boolean valid) {
+            this(valid, null);
+        }
+
+        IsValidHandler(boolean valid, SQLException failure) {
+            this.valid = valid;
+            this.failure = failure;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+            if ("isValid".equals(method.getName())) {
+                calls++;
+                if (failure != null) {
+                    throw failure;
+                }
+                return valid;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private static Connection connection(IsValidHandler handler) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, handler);
+    }
+
+    /** Test that connection used within validation interval is not checked. */
+    @Test
+    public void testValidationInterval() {
+        DB2Configuration cfg = new DB2Configuration();
+        cfg.setValidationInterval(60);
+        IsValidHandler handler = new IsValidHandler(true);
+        DB2StatementCache conn = new DB2StatementCache(connection(handler));
+        DB2ConnectionValidator validator = new DB2ConnectionValidator(cfg);
+        validator.validate(conn);
+        validator.validate(conn);
+        assertEquals(1, handler.calls);
+        cfg.setValidationInterval(0);
+        validator = new DB2ConnectionValidator(cfg);
+        validator.validate(conn);
+        assertEquals(2, handler.calls);
+    }
+
+    /** Test that connection which is not valid is reported. */
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testNotValid() {
+        new DB2ConnectionValidator(new DB2Configuration()).validate(new DB2StatementCache(
+                connection(new IsValidHandler(false))));
+    }
+
+    /** Test that failure of isValid means connection is not valid, isValid is used again. */
+    @Test
+    public void testIsValidFailure() {
+        IsValidHandler handler = new IsValidHandler(true, new SQLException("Connection closed"));
+        DB2StatementCache conn = new DB2StatementCache(connection(handler));
+        DB2ConnectionValidator validator = new DB2ConnectionValidator(new DB2Configuration());
+        for (int i = 0; i < 2; i++) {
+            try {
+                validator.validate(conn);
+                fail("Connection must not be valid");
+            } catch (IllegalStateException e) {
+                assertSame(handler.failure, e.getCause());
+            }
+        }
+        assertEquals(2, handler.calls);
+    }
+}
@@ -31,8 +31,11 @@ import static org.testng.AssertJUnit.assertTrue;
 import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,6 +45,7 @@ import org.identityconnectors.framework.api.APIConfiguration;
 import org.identityconnectors.framework.api.ConnectorFacade;
 import org.identityconnectors.framework.api.ConnectorFacadeFactory;
 import org.identityconnectors.framework.common.exceptions.AlreadyExistsException;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
@@ -56,6 +60,12 @@ import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.objects.ScriptContext;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.ContainsAllValuesFilter;
 import org.identityconnectors.framework.common.objects.filter.EndsWithFilter;
@@ -95,6 +105,15 @@ public class DB2ConnectorTest {
         return factory.newInstance(apiCfg);
     }
 
+    /**
+     * Disposes pooled connector instances of all facades, so connectors
+     * release shared admin connection pools and their threads. Facades create
+     * new connector instances on next operation.
+     */
+    private static void disposeFacades() {
+        ConnectorFacadeFactory.getInstance().dispose();
+    }
+
     /**
      * Just call test
      */
@@ -360,6 +379,281 @@ public class DB2ConnectorTest {
         assertNotNull(grants.getValue());
     }
 
+    /**
+     * Test find by uid without asking for grants attribute
+     */
+    @Test
+    public void testFindWithoutGrants() {
+        String username = testProps.getProperty("testUser", String.class, "TEST");
+        final Uid expected = new Uid(username);
+        createTestUser();
+        FindUidObjectHandler handler = new FindUidObjectHandler(new Uid(username));
+        OperationOptions options =
+                new OperationOptionsBuilder().setAttributesToGet(Arrays.asList(Name.NAME))
+                        .build();
+        facade.search(ObjectClass.ACCOUNT, new EqualsFilter(expected), handler, options);
+        assertTrue("The user was not found", handler.found);
+        final ConnectorObject actual = handler.getFoundObject();
+        assertNotNull(actual);
+        assertNull(actual.getAttributeByName(DB2Connector.USER_AUTH_GRANTS));
+    }
+
+    /**
+     * Test paged search returns same users as unpaged search
+     */
+    @Test
+    public void testPagedSearch() {
+        createTestUser("PAGEUSER1");
+        createTestUser("PAGEUSER2");
+        AllResultsHandler allHandler = new AllResultsHandler();
+        facade.search(ObjectClass.ACCOUNT, null, allHandler, new OperationOptionsBuilder()
+                .setAttributesToGet(Arrays.asList(Name.NAME)).build());
+        Set<Uid> expected = new HashSet<Uid>(allHandler.getResultUids());
+
+        Set<Uid> paged = new HashSet<Uid>();
+        String cookie = null;
+        do {
+            AllResultsHandler pageHandler = new AllResultsHandler();
+            SearchResult result =
+                    facade.search(ObjectClass.ACCOUNT, null, pageHandler,
+                            new OperationOptionsBuilder().setAttributesToGet(
+                                    Arrays.asList(Name.NAME)).setPageSize(1)
+                                    .setPagedResultsCookie(cookie).build());
+            assertTrue("Page must contain at most one user", pageHandler.getResults().size() <= 1);
+            paged.addAll(pageHandler.getResultUids());
+            cookie = result.getPagedResultsCookie();
+        } while (cookie != null);
+        assertEquals(expected, paged);
+        facade.delete(ObjectClass.ACCOUNT, new Uid("PAGEUSER1"), null);
+        facade.delete(ObjectClass.ACCOUNT, new Uid("PAGEUSER2"), null);
+    }
+
+    /**
+     * Test batched grants and that failing grant is named in error message
+     */
+    @Test
+    public void testBatchedGrants() {
+        DB2Configuration conf = DB2ConfigurationTest.createTestConfiguration();
+        conf.setGrantBatchSize(2);
+        ConnectorFacade batchFacade = createFacade(conf);
+        String userName = "BATCHUSER";
+        Set<Attribute> attributes = new HashSet<Attribute>();
+        attributes.add(new Name(userName));
+        attributes.add(AttributeBuilder.build(DB2Connector.USER_AUTH_GRANTS,
+                "CONNECT ON DATABASE", "LOAD ON DATABASE", "SELECT ON SYSCAT.TABLES",
+                "SELECT ON NOTEXISTING.NOTEXISTING"));
+        try {
+            batchFacade.create(ObjectClass.ACCOUNT, attributes, null);
+            Assert.fail("Create must fail for grant on not existing table");
+        } catch (ConnectorException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("NOTEXISTING.NOTEXISTING"));
+        }
+        assertNull("User must not be created", findUser(userName));
+        attributes.remove(AttributeUtil.find(DB2Connector.USER_AUTH_GRANTS, attributes));
+        attributes.add(AttributeBuilder.build(DB2Connector.USER_AUTH_GRANTS,
+                "CONNECT ON DATABASE", "LOAD ON DATABASE", "SELECT ON SYSCAT.TABLES"));
+        batchFacade.create(ObjectClass.ACCOUNT, attributes, null);
+        assertNotNull(findUser(userName));
+        batchFacade.delete(ObjectClass.ACCOUNT, new Uid(userName), null);
+    }
+
+    /**
+     * Test that writes committed in one group are isolated, failing create
+     * does not roll back other create of the group
+     */
+    @Test
+    public void testGroupCommit() throws InterruptedException {
+        DB2Configuration conf = DB2ConfigurationTest.createTestConfiguration();
+        conf.setGroupCommitInterval(1000);
+        final ConnectorFacade groupFacade = createFacade(conf);
+        final Set<Attribute> failing = new HashSet<Attribute>();
+        failing.add(new Name("GROUPUSER2"));
+        failing.add(AttributeBuilder.build(DB2Connector.USER_AUTH_GRANTS,
+                "SELECT ON NOTEXISTING.NOTEXISTING"));
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    groupFacade.create(ObjectClass.ACCOUNT, failing, null);
+                } catch (Exception e) {
+                    failures.add(e);
+                }
+            }
+        };
+        thread.start();
+        Set<Attribute> attributes = new HashSet<Attribute>();
+        attributes.add(new Name("GROUPUSER1"));
+        attributes.add(AttributeBuilder.build(DB2Connector.USER_AUTH_GRANTS,
+                "SELECT ON SYSCAT.TABLES"));
+        groupFacade.create(ObjectClass.ACCOUNT, attributes, null);
+        thread.join();
+        assertEquals(1, failures.size());
+        assertNotNull(findUser("GROUPUSER1"));
+        assertNull(findUser("GROUPUSER2"));
+        groupFacade.delete(ObjectClass.ACCOUNT, new Uid("GROUPUSER1"), null);
+    }
+
+    /**
+     * Test operations leasing admin connections from the pool
+     */
+    @Test
+    public void testAdminConnectionPool() {
+        DB2Configuration conf = DB2ConfigurationTest.createTestConfiguration();
+        conf.setAdminPoolMaxSize(2);
+        conf.setAdminPoolMinSize(1);
+        ConnectorFacade poolFacade = createFacade(conf);
+        try {
+            poolFacade.test();
+            String userName = "POOLUSER";
+            Set<Attribute> attributes = new HashSet<Attribute>();
+            attributes.add(new Name(userName));
+            attributes.add(AttributeBuilder.build(DB2Connector.USER_AUTH_GRANTS,
+                    "SELECT ON SYSCAT.TABLES"));
+            Uid uid = poolFacade.create(ObjectClass.ACCOUNT, attributes, null);
+            assertNotNull(poolFacade.getObject(ObjectClass.ACCOUNT, uid, null));
+            poolFacade.delete(ObjectClass.ACCOUNT, uid, null);
+            assertNull(poolFacade.getObject(ObjectClass.ACCOUNT, uid, null));
+        } finally {
+            disposeFacades();
+        }
+    }
+
+    /**
+     * Test lazy connect and warm-up of admin connection pool
+     */
+    @Test
+    public void testLazyConnectAndWarmUp() {
+        DB2Configuration conf = DB2ConfigurationTest.createTestConfiguration();
+        conf.setLazyConnect(true);
+        try {
+            ConnectorFacade lazyFacade = createFacade(conf);
+            assertNotNull(lazyFacade.schema());
+            lazyFacade.test();
+            conf = DB2ConfigurationTest.createTestConfiguration();
+            conf.setAdminPoolMaxSize(3);
+            conf.setAdminPoolWarmUpSize(2);
+            ConnectorFacade warmFacade = createFacade(conf);
+            warmFacade.test();
+            assertNotNull(warmFacade.getObject(ObjectClass.ACCOUNT, new Uid(conf
+                    .getAdminAccount().toUpperCase()), null));
+        } finally {
+            disposeFacades();
+        }
+    }
+
+    /**
+     * Test that adding held grants and removing not held grants succeeds
+     */
+    @Test
+    public void testIdempotentAddAndRemove() {
+        final Uid uid = createTestUser("IDEMUSER");
+        Set<Attribute> grants =
+                Collections.singleton(AttributeBuilder.build(DB2Connector.USER_AUTH_GRANTS,
+                        "LOAD ON DATABASE"));
+        facade.addAttributeValues(ObjectClass.ACCOUNT, uid, grants, null);
+        facade.addAttributeValues(ObjectClass.ACCOUNT, uid, grants, null);
+        facade.removeAttributeValues(ObjectClass.ACCOUNT, uid, grants, null);
+        facade.removeAttributeValues(ObjectClass.ACCOUNT, uid, grants, null);
+        assertNotNull(findUser(uid.getUidValue()));
+        facade.delete(ObjectClass.ACCOUNT, uid, null);
+    }
+
+    /**
+     * Test update delta script removes and adds grants at once
+     */
+    @Test
+    public void testUpdateDelta() {
+        final Uid uid = createTestUser("DELTAUSER");
+        facade.addAttributeValues(ObjectClass.ACCOUNT, uid, Collections.singleton(AttributeBuilder
+                .build(DB2Connector.USER_AUTH_GRANTS, "LOAD ON DATABASE")), null);
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put(DB2Connector.SCRIPT_ARG_UID, uid.getUidValue());
+        args.put(DB2Connector.SCRIPT_ARG_VALUES_TO_ADD, Arrays.asList("SELECT ON SYSCAT.TABLES"));
+        args.put(DB2Connector.SCRIPT_ARG_VALUES_TO_REMOVE, Arrays.asList("LOAD ON DATABASE"));
+        facade.runScriptOnConnector(new ScriptContext(DB2Connector.SCRIPT_LANGUAGE,
+                DB2Connector.UPDATE_DELTA_SCRIPT, args), null);
+        FindUidObjectHandler handler = new FindUidObjectHandler(uid);
+        facade.search(ObjectClass.ACCOUNT, new EqualsFilter(uid), handler, null);
+        List<Object> grants =
+                handler.getFoundObject().getAttributeByName(DB2Connector.USER_AUTH_GRANTS)
+                        .getValue();
+        assertTrue(grants.contains("SELECT ON SYSCAT.TABLES"));
+        assertFalse(grants.contains("LOAD ON DATABASE"));
+        assertTrue(grants.contains("CONNECT ON DATABASE"));
+        facade.delete(ObjectClass.ACCOUNT, uid, null);
+    }
+
+    /**
+     * Test bulk create reports created and failed users
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBulkCreate() {
+        createTestUser("BULKUSER0");
+        Map<String, Object> users = new HashMap<String, Object>();
+        users.put("BULKUSER0", Arrays.asList("CONNECT ON DATABASE"));
+        users.put("BULKUSER1", Arrays.asList("CONNECT ON DATABASE", "SELECT ON SYSCAT.TABLES"));
+        users.put("BULKUSER2", Arrays.asList("SELECT ON NOTEXISTING.NOTEXISTING"));
+        users.put("BULKUSER3", Arrays.asList("LOAD ON DATABASE"));
+        users.put("SQL", Arrays.asList("CONNECT ON DATABASE"));
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put(DB2Connector.SCRIPT_ARG_USERS, users);
+        Map<String, Object> result =
+                (Map<String, Object>) facade.runScriptOnConnector(new ScriptContext(
+                        DB2Connector.SCRIPT_LANGUAGE, DB2Connector.BULK_CREATE_SCRIPT, args),
+                        null);
+        List<String> succeeded = (List<String>) result.get(DB2Connector.BULK_RESULT_SUCCEEDED);
+        Map<String, String> failed = (Map<String, String>) result.get(DB2Connector.BULK_RESULT_FAILED);
+        assertEquals(new HashSet<String>(Arrays.asList("BULKUSER1", "BULKUSER3")),
+                new HashSet<String>(succeeded));
+        assertEquals(new HashSet<String>(Arrays.asList("BULKUSER0", "BULKUSER2", "SQL")), failed
+                .keySet());
+        assertNotNull(findUser("BULKUSER1"));
+        assertNull(findUser("BULKUSER2"));
+        assertNotNull(findUser("BULKUSER3"));
+        for (String userName : Arrays.asList("BULKUSER0", "BULKUSER1", "BULKUSER3")) {
+            facade.delete(ObjectClass.ACCOUNT, new Uid(userName), null);
+        }
+    }
+
+    /**
+     * Test sync reports created, updated and deleted user
+     */
+    @Test
+    public void testSync() {
+        final Uid uid = new Uid("SYNCUSER");
+        SyncToken token = facade.getLatestSyncToken(ObjectClass.ACCOUNT);
+        createTestUser(uid.getUidValue());
+        token = assertSyncDelta(token, uid, SyncDeltaType.CREATE);
+        facade.addAttributeValues(ObjectClass.ACCOUNT, uid, Collections.singleton(AttributeBuilder
+                .build(DB2Connector.USER_AUTH_GRANTS, "LOAD ON DATABASE")), null);
+        token = assertSyncDelta(token, uid, SyncDeltaType.UPDATE);
+        facade.delete(ObjectClass.ACCOUNT, uid, null);
+        token = assertSyncDelta(token, uid, SyncDeltaType.DELETE);
+        final List<SyncDelta> deltas = sync(token);
+        assertTrue("No change expected", deltas.isEmpty());
+    }
+
+    private List<SyncDelta> sync(SyncToken token) {
+        final List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        facade.sync(ObjectClass.ACCOUNT, token, new SyncResultsHandler() {
+            public boolean handle(SyncDelta delta) {
+                deltas.add(delta);
+                return true;
+            }
+        }, null);
+        return deltas;
+    }
+
+    private SyncToken assertSyncDelta(SyncToken token, Uid uid, SyncDeltaType type) {
+        final List<SyncDelta> deltas = sync(token);
+        assertEquals(1, deltas.size());
+        assertEquals(uid, deltas.get(0).getUid());
+        assertEquals(type, deltas.get(0).getDeltaType());
+        return deltas.get(0).getToken();
+    }
+
     /**
      * Testing update
      */
@@ -633,6 +927,39 @@ public class DB2ConnectorTest {
         testFailForValidity(connector, "US%US", "Must fail for invalid char");
     }
 
+    /** Test that users of bulk create differing only by case do not collapse silently */
+    @Test
+    public void testBulkDuplicateUsersFailSeparately() {
+        DB2Connector connector = new DB2Connector();
+        connector.init(testConf);
+        Map<Object, Object> users = new LinkedHashMap<Object, Object>();
+        users.put("JOHN", Arrays.asList("CONNECT ON DATABASE"));
+        users.put("john", Arrays.asList("LOAD ON DATABASE"));
+        users.put(" John ", Arrays.asList("LOAD ON DATABASE"));
+        users.put("MARY", Arrays.asList("CONNECT ON DATABASE"));
+        Map<String, String> failed = new LinkedHashMap<String, String>();
+        Map<String, Collection<String>> valid = connector.checkBulkUsers(users, failed);
+        assertEquals(Arrays.asList("JOHN", "MARY"), Arrays.asList(valid.keySet().toArray()));
+        assertEquals(Arrays.asList("CONNECT ON DATABASE"), valid.get("JOHN"));
+        assertEquals(Arrays.asList("john", " John "), Arrays.asList(failed.keySet().toArray()));
+    }
+
+    /** Test that every blank or null name of bulk create is reported under its position */
+    @Test
+    public void testBulkBlankUsersFailSeparately() {
+        DB2Connector connector = new DB2Connector();
+        connector.init(testConf);
+        Map<Object, Object> users = new LinkedHashMap<Object, Object>();
+        users.put("", Arrays.asList("CONNECT ON DATABASE"));
+        users.put("JOHN", Arrays.asList("CONNECT ON DATABASE"));
+        users.put(" ", Arrays.asList("CONNECT ON DATABASE"));
+        users.put(null, Arrays.asList("CONNECT ON DATABASE"));
+        Map<String, String> failed = new LinkedHashMap<String, String>();
+        Map<String, Collection<String>> valid = connector.checkBulkUsers(users, failed);
+        assertEquals(Arrays.asList("JOHN"), Arrays.asList(valid.keySet().toArray()));
+        assertEquals(Arrays.asList("[0]", "[2]", "[3]"), Arrays.asList(failed.keySet().toArray()));
+    }
+
     @Test(enabled = false)
     private void testFailForValidity(DB2Connector connector, String name, String msg) {
         try {
@@ -0,0 +1,110 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test of planning GRANT and REVOKE statements.
+ */
+public class DB2GrantPlannerTest {
+
+    /** Test that privileges on the same object are combined. */
+    @Test
+    public void testPlanGrants() {
+        assertEquals(Arrays.asList("GRANT SELECT, INSERT ON HR.SALARY TO USER JOHN",
+                "GRANT CONNECT, LOAD ON DATABASE TO USER JOHN",
+                "GRANT USE OF TABLESPACE USERSPACE1 TO USER JOHN",
+                "GRANT SELECT, INSERT ON HR.X, HR.Y TO USER JOHN"), DB2GrantPlanner.planGrants(
+                Arrays.asList("SELECT ON HR.SALARY", "CONNECT ON DATABASE",
+                        "INSERT ON TABLE HR.SALARY", "USE OF TABLESPACE USERSPACE1",
+                        "SELECT, INSERT ON HR.X, HR.Y", "LOAD ON DATABASE",
+                        "SELECT ON HR.SALARY"), "john"));
+    }
+
+    /** Test that same privileges of more users are granted at once. */
+    @Test
+    public void testPlanSharedGrants() {
+        Map<String, Collection<String>> grants = new LinkedHashMap<String, Collection<String>>();
+        grants.put("john", Arrays.asList("SELECT ON HR.SALARY", "CONNECT ON DATABASE"));
+        grants.put("mary", Arrays.asList("CONNECT ON DATABASE", "SELECT ON HR.SALARY"));
+        grants.put("pete", Arrays.asList("CONNECT ON DATABASE", "LOAD ON DATABASE"));
+        assertEquals(Arrays.asList("GRANT SELECT ON HR.SALARY TO USER JOHN, USER MARY",
+                "GRANT CONNECT ON DATABASE TO USER JOHN, USER MARY",
+                "GRANT CONNECT, LOAD ON DATABASE TO USER PETE"), DB2GrantPlanner
+                .planSharedGrants(grants));
+    }
+
+    /** Test that long multi grantee statement is split. */
+    @Test
+    public void testPlanSharedGrantsLength() {
+        Map<String, Collection<String>> grants = new LinkedHashMap<String, Collection<String>>();
+        for (int i = 0; i < 5000; i++) {
+            grants.put("USER" + i, Arrays.asList("CONNECT ON DATABASE"));
+        }
+        List<String> statements = DB2GrantPlanner.planSharedGrants(grants);
+        assertEquals(true, statements.size() > 1);
+        int users = 0;
+        for (String statement : statements) {
+            assertEquals(true, statement.length() <= DB2GrantPlanner.MAX_STATEMENT_LENGTH);
+            users += statement.split(", ").length;
+        }
+        assertEquals(5000, users);
+    }
+
+    /** Test that revokes of authorities are combined per object. */
+    @Test
+    public void testPlanAuthorityRevokes() {
+        assertEquals(Arrays.asList("REVOKE CONTROL, SELECT ON HR.SALARY FROM USER JOHN",
+                "REVOKE CREATEIN ON SCHEMA HR FROM USER JOHN"), DB2GrantPlanner
+                .planAuthorityRevokes(Arrays.asList(new DB2Authority(
+                        DB2Specifics.AUTH_TYPE_TABLE, "CONTROL", "HR.SALARY", "JOHN"),
+                        new DB2Authority(DB2Specifics.AUTH_TYPE_SCHEMA, "CREATEIN", "HR", "JOHN"),
+                        new DB2Authority(DB2Specifics.AUTH_TYPE_TABLE, "SELECT", "HR.SALARY",
+                                "JOHN"))));
+    }
+
+    /** Test that grants of more privileges are never filtered out. */
+    @Test
+    public void testFilterGrantsKeepsUnknownPrivileges() {
+        Set<String> held = Collections.singleton("SELECT ON HR.SALARY");
+        Collection<String> grants =
+                Arrays.asList("ALL ON HR.SALARY", "SELECT,INSERT ON HR.SALARY",
+                        "select on hr.salary", "INSERT ON HR.SALARY");
+        assertEquals(Arrays.asList("ALL ON HR.SALARY", "SELECT,INSERT ON HR.SALARY",
+                "select on hr.salary"), DB2GrantPlanner.filterGrants(grants, held, true));
+        assertEquals(Arrays.asList("ALL ON HR.SALARY", "SELECT,INSERT ON HR.SALARY",
+                "INSERT ON HR.SALARY"), DB2GrantPlanner.filterGrants(grants, held, false));
+    }
+}
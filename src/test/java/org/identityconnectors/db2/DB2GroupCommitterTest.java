@@ -0,0 +1,106 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.sql.SQLException;
+
+import org.identityconnectors.test.common.TestHelpers;
+import org.testng.annotations.Test;
+
+/**
+ * Test of group committer.
+ */
+public class DB2GroupCommitterTest {
+
+    /** Executes one write in new thread and stores failure of the write. */
+    private static class Writer extends Thread {
+        final DB2GroupCommitter committer;
+        volatile Exception failure;
+
+        Writer(DB2GroupCommitter committer) {
+            this.committer = committer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                committer.execute(new DB2GroupCommitter.Write() {
+                    public void plan(DB2StatementCache statements, DB2StatementBatch batch)
+                            throws SQLException {
+                        batch.add("GRANT CONNECT ON DATABASE TO USER JOHN");
+                    }
+                });
+            } catch (SQLException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private static DB2Configuration createConfiguration(int interval) {
+        DB2Configuration cfg = new DB2Configuration();
+        cfg.setConnectorMessages(TestHelpers.createDummyMessages());
+        cfg.setDatabaseName("GROUPCOMMITTERTEST");
+        cfg.setGroupCommitInterval(interval);
+        return cfg;
+    }
+
+    /** Test that all writes fail when connection cannot be opened. */
+    @Test
+    public void testConnectionFailureIsReportedToAll() throws InterruptedException {
+        DB2GroupCommitter committer = DB2GroupCommitter.acquire(createConfiguration(300));
+        try {
+            Writer leader = new Writer(committer);
+            Writer follower = new Writer(committer);
+            leader.start();
+            follower.start();
+            leader.join();
+            follower.join();
+            assertTrue(leader.failure instanceof RuntimeException);
+            assertTrue(follower.failure instanceof RuntimeException);
+        } finally {
+            committer.release();
+        }
+    }
+
+    /** Test that write is committed at once when no other group is committed. */
+    @Test
+    public void testSingleWriteDoesNotWait() throws InterruptedException {
+        DB2GroupCommitter committer = DB2GroupCommitter.acquire(createConfiguration(10000));
+        try {
+            Writer writer = new Writer(committer);
+            final long start = System.currentTimeMillis();
+            writer.start();
+            writer.join();
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertNotNull(writer.failure);
+        } finally {
+            committer.release();
+        }
+    }
+}
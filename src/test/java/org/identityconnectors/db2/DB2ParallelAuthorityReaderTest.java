@@ -0,0 +1,82 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Collections;
+
+import org.identityconnectors.test.common.TestHelpers;
+import org.testng.annotations.Test;
+
+/**
+ * Test of parallel authority reader.
+ */
+public class DB2ParallelAuthorityReaderTest {
+
+    private static DB2Configuration createConfiguration(int parallelism) {
+        DB2Configuration cfg = new DB2Configuration();
+        cfg.setConnectorMessages(TestHelpers.createDummyMessages());
+        cfg.setDatabaseName("PARALLELREADERTEST");
+        cfg.setAuthorityReadParallelism(parallelism);
+        return cfg;
+    }
+
+    /** Test that reader is shared by configuration and disposed by last release. */
+    @Test
+    public void testSharedReader() {
+        final int shared = DB2ParallelAuthorityReader.getSharedCount();
+        DB2ParallelAuthorityReader reader1 =
+                DB2ParallelAuthorityReader.acquire(createConfiguration(2));
+        DB2ParallelAuthorityReader reader2 =
+                DB2ParallelAuthorityReader.acquire(createConfiguration(2));
+        DB2ParallelAuthorityReader reader3 =
+                DB2ParallelAuthorityReader.acquire(createConfiguration(3));
+        assertSame(reader1, reader2);
+        assertNotSame(reader1, reader3);
+        assertEquals(shared + 2, DB2ParallelAuthorityReader.getSharedCount());
+        reader1.release();
+        assertEquals(shared + 2, DB2ParallelAuthorityReader.getSharedCount());
+        reader2.release();
+        reader3.release();
+        assertEquals(shared, DB2ParallelAuthorityReader.getSharedCount());
+    }
+
+    /** Test that no connection is needed when there is no user to read. */
+    @Test
+    public void testReadNoUsers() throws SQLException {
+        DB2ParallelAuthorityReader reader =
+                DB2ParallelAuthorityReader.acquire(createConfiguration(2));
+        try {
+            assertTrue(reader.readAllAuthorities(Collections.<String> emptyList(), null)
+                    .isEmpty());
+        } finally {
+            reader.release();
+        }
+    }
+}
@@ -22,12 +22,22 @@
  */
 package org.identityconnectors.db2;
 
+import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.util.Collection;
+import java.util.Map;
 
+import org.identityconnectors.test.common.TestHelpers;
 import org.testng.annotations.Test;
 
 /**
@@ -47,6 +57,141 @@ public class DB2SpecificsTest {
         assertTrue("Must contain at least 50 exclude names", excludeNames.size() >= 50);
     }
 
+    /** Test parsing of grant strings into authorities. */
+    @Test
+    public void testParseGrant() {
+        DB2Authority auth = DB2Specifics.parseGrant("select on hr.salary", "TEST");
+        assertEquals(DB2Specifics.AUTH_TYPE_TABLE, auth.authorityType);
+        assertEquals("SELECT", auth.authorityFunction);
+        assertEquals("HR.SALARY", auth.authorityObject);
+        assertEquals("TEST", auth.userName);
+
+        auth = DB2Specifics.parseGrant("CONNECT ON DATABASE", "TEST");
+        assertEquals(DB2Specifics.AUTH_TYPE_DATABASE, auth.authorityType);
+        assertEquals("CONNECT", auth.authorityFunction);
+        assertEquals("", auth.authorityObject);
+
+        auth = DB2Specifics.parseGrant("USE OF TABLESPACE USERSPACE1", "TEST");
+        assertEquals(DB2Specifics.AUTH_TYPE_TABLESPACE, auth.authorityType);
+        assertEquals("USERSPACE1", auth.authorityObject);
+
+        auth = DB2Specifics.parseGrant("CONTROL ON INDEX DB2INST1.IX1", "TEST");
+        assertEquals(DB2Specifics.AUTH_TYPE_INDEX, auth.authorityType);
+
+        auth = DB2Specifics.parseGrant("INSERT ON TABLE HR.SALARY", "TEST");
+        assertEquals(DB2Specifics.AUTH_TYPE_TABLE, auth.authorityType);
+        assertEquals("HR.SALARY", auth.authorityObject);
+
+        assertNull(DB2Specifics.parseGrant("SELECT, INSERT ON HR.SALARY", "TEST"));
+        assertNull(DB2Specifics.parseGrant("SELECT,INSERT ON HR.SALARY", "TEST"));
+        assertNull(DB2Specifics.parseGrant("ALL ON HR.SALARY", "TEST"));
+        assertNull(DB2Specifics.parseGrant("ALL PRIVILEGES ON TABLE HR.SALARY", "TEST"));
+        assertNull(DB2Specifics.parseGrant("CONNECT", "TEST"));
+    }
+
+    /** Test normalizing grants into the form read from authority tables. */
+    @Test
+    public void testNormalizeGrant() {
+        assertEquals("INSERT ON HR.SALARY", DB2Specifics.normalizeGrant("insert on table hr.salary"));
+        assertEquals("CONNECT ON DATABASE", DB2Specifics.normalizeGrant(" connect  on database"));
+        assertEquals("SELECT, INSERT ON HR.SALARY", DB2Specifics
+                .normalizeGrant("select,  insert on hr.salary"));
+    }
+
+    /** Test finding object of grants we cannot parse. */
+    @Test
+    public void testGrantObject() {
+        assertEquals("HR.SALARY", DB2Specifics.grantObject("all on hr.salary"));
+        assertEquals("HR.SALARY", DB2Specifics.grantObject("ALL PRIVILEGES ON TABLE HR.SALARY"));
+        assertEquals("HR.SALARY", DB2Specifics.grantObject("SELECT, INSERT ON HR.SALARY"));
+        assertEquals("", DB2Specifics.grantObject("CONNECT ON DATABASE"));
+        assertNull(DB2Specifics.grantObject("DBADM"));
+        assertNull(DB2Specifics.grantObject("SELECT ON"));
+    }
+
+    /**
+     * Test that test SQL set in configuration is used only by the
+     * configuration and test SQL found by probing is cached for the database.
+     */
+    @Test
+    public void testFindTestSQLCache() {
+        DB2Configuration configured = new DB2Configuration();
+        configured.setUrl("jdbc:db2://testsql:50000/SAMPLE");
+        configured.setTestSQL("select 1 from sysibm.SYSDUMMY1");
+        assertEquals("select 1 from sysibm.SYSDUMMY1", DB2Specifics.findTestSQL(null, configured));
+        DB2Configuration other = new DB2Configuration();
+        other.setUrl("jdbc:db2://testsql:50000/SAMPLE");
+        other.setAdminAccount("other");
+        final int[] queries = new int[1];
+        final ResultSet rs =
+                (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                        new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                return null;
+                            }
+                        });
+        final Statement st =
+                (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                        new Class<?>[] { Statement.class }, new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                if ("executeQuery".equals(method.getName())) {
+                                    queries[0]++;
+                                    return rs;
+                                }
+                                return null;
+                            }
+                        });
+        Connection conn =
+                (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                        new Class<?>[] { Connection.class }, new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                return "createStatement".equals(method.getName()) ? st : null;
+                            }
+                        });
+        assertEquals("select 1 from sysibm.dual", DB2Specifics.findTestSQL(conn, other));
+        assertEquals(1, queries[0]);
+        // no connection is needed, database is not probed again
+        DB2Configuration another = new DB2Configuration();
+        another.setUrl("jdbc:db2://testsql:50000/SAMPLE");
+        assertEquals("select 1 from sysibm.dual", DB2Specifics.findTestSQL(null, another));
+        assertEquals("select 1 from sysibm.SYSDUMMY1", DB2Specifics.findTestSQL(null, configured));
+    }
+
+    /** Test parsing of typed connection properties and appending them to URL. */
+    @Test
+    public void testConnectionProperties() {
+        Map<String, Object> props = DB2Specifics.parseConnectionProperties(new String[] {
+            "fetchSize=100", " progressiveStreaming = 1", "", "fullyMaterializeLobData=false" },
+                TestHelpers.createDummyMessages());
+        assertEquals(3, props.size());
+        assertEquals(Integer.valueOf(100), props.get("fetchSize"));
+        assertEquals(Integer.valueOf(1), props.get("progressiveStreaming"));
+        assertEquals(Boolean.FALSE, props.get("fullyMaterializeLobData"));
+        assertEquals("jdbc:db2://host:50000/SAMPLE:fetchSize=100;progressiveStreaming=1;"
+                + "fullyMaterializeLobData=false;", DB2Specifics.appendConnectionProperties(
+                "jdbc:db2://host:50000/SAMPLE", props));
+        assertEquals("jdbc:db2:SAMPLE:currentSchema=HR;fetchSize=100;"
+                + "progressiveStreaming=1;fullyMaterializeLobData=false;", DB2Specifics
+                .appendConnectionProperties("jdbc:db2:SAMPLE:currentSchema=HR;", props));
+        assertEquals("jdbc:db2:SAMPLE", DB2Specifics.appendConnectionProperties(
+                "jdbc:db2:SAMPLE", DB2Specifics.parseConnectionProperties(null, null)));
+    }
+
+    /** Test that invalid connection properties are rejected. */
+    @Test
+    public void testInvalidConnectionProperties() {
+        String[][] invalid = { { "fetchSize" }, { "noSuchProperty=1" }, { "fetchSize=many" },
+            { "sslConnection=yes" }, { "currentSchema=HR;fetchSize=1" } };
+        for (String[] props : invalid) {
+            try {
+                DB2Specifics.parseConnectionProperties(props, TestHelpers.createDummyMessages());
+                fail("Connection property " + props[0] + " must be rejected");
+            } catch (IllegalArgumentException e) {
+                assertNotNull(e.getMessage());
+            }
+        }
+    }
+
     /**
      * Here I have manually tested stale connection.
      *
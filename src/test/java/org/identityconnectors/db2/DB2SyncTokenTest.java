@@ -0,0 +1,126 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
+import org.testng.annotations.Test;
+
+/**
+ * Test of sync token encoding.
+ */
+public class DB2SyncTokenTest {
+
+    /** Test that digest does not depend on order of grants. */
+    @Test
+    public void testDigest() {
+        final String digest =
+                DB2SyncToken.digest(Arrays.asList("CONNECT ON DATABASE", "SELECT ON HR.SALARY"));
+        assertEquals(digest, DB2SyncToken.digest(Arrays.asList("SELECT ON HR.SALARY",
+                "CONNECT ON DATABASE")));
+        assertFalse(digest.equals(DB2SyncToken.digest(Arrays.asList("CONNECT ON DATABASE"))));
+    }
+
+    /** Test encoding and decoding of token. */
+    @Test
+    public void testEncodeDecode() {
+        assertTrue(DB2SyncToken.decode(null).isEmpty());
+        final SortedMap<String, String> digests = new TreeMap<String, String>();
+        digests.put("JOHN", DB2SyncToken.digest(Arrays.asList("CONNECT ON DATABASE")));
+        digests.put("MARY", DB2SyncToken.digest(Arrays.asList("LOAD ON DATABASE")));
+        assertEquals(digests, DB2SyncToken.decode(DB2SyncToken.encode(digests)));
+    }
+
+    /** Handler recording deltas and final token of sync. */
+    private static class RecordingHandler implements SyncTokenResultsHandler {
+        final List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        SyncToken result;
+
+        public boolean handle(SyncDelta delta) {
+            deltas.add(delta);
+            return true;
+        }
+
+        public void handleResult(SyncToken token) {
+            result = token;
+        }
+    }
+
+    /** Test sync of many users, token is not encoded for each delta. */
+    @Test
+    public void testSyncManyUsers() {
+        final int users = 20000;
+        final SortedMap<String, List<String>> snapshot = new TreeMap<String, List<String>>();
+        for (int i = 0; i < users; i++) {
+            snapshot.put(String.format("USER%05d", i), Arrays.asList("CONNECT ON DATABASE"));
+        }
+        RecordingHandler handler = new RecordingHandler();
+        DB2Connector.syncSnapshot(null, snapshot, handler);
+        assertEquals(users, handler.deltas.size());
+        final Set<SyncToken> tokens = new HashSet<SyncToken>();
+        for (SyncDelta delta : handler.deltas) {
+            assertEquals(SyncDeltaType.CREATE, delta.getDeltaType());
+            tokens.add(delta.getToken());
+        }
+        assertTrue(tokens.size() <= users / DB2Connector.SYNC_CHECKPOINT_DELTAS + 2);
+        // checkpoint token holds users reported so far
+        final int checkpoint = DB2Connector.SYNC_CHECKPOINT_DELTAS - 1;
+        assertEquals(checkpoint + 1, DB2SyncToken.decode(
+                handler.deltas.get(checkpoint).getToken()).size());
+        assertSame(handler.result, handler.deltas.get(users - 1).getToken());
+        assertEquals(users, DB2SyncToken.decode(handler.result).size());
+
+        snapshot.put("USER00001", Arrays.asList("LOAD ON DATABASE"));
+        snapshot.remove("USER00002");
+        RecordingHandler next = new RecordingHandler();
+        DB2Connector.syncSnapshot(handler.result, snapshot, next);
+        assertEquals(2, next.deltas.size());
+        assertEquals(SyncDeltaType.UPDATE, next.deltas.get(0).getDeltaType());
+        assertEquals("USER00001", next.deltas.get(0).getUid().getUidValue());
+        assertSame(handler.result, next.deltas.get(0).getToken());
+        assertEquals(SyncDeltaType.DELETE, next.deltas.get(1).getDeltaType());
+        assertEquals(users - 1, DB2SyncToken.decode(next.result).size());
+    }
+
+    /** Test that foreign token is rejected. */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidToken() {
+        DB2SyncToken.decode(new SyncToken(Integer.valueOf(1)));
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * DO NOT REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2015 ForgeRock AS. All rights reserved.
+ *
+ * The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://opensource.org/licenses/CDDL-1.0
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at http://opensource.org/licenses/CDDL-1.0
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ */
+package org.identityconnectors.db2;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.testng.annotations.Test;
+
+/**
+ * Test of update coalescer.
+ */
+public class DB2UpdateCoalescerTest {
+
+    private static final Collection<String> NONE = Collections.emptyList();
+
+    /** Applier recording applied updates, optionally failing. */
+    private static class RecordingApplier implements DB2UpdateCoalescer.Applier {
+        final List<List<Collection<String>>> applied = new ArrayList<List<Collection<String>>>();
+        final RuntimeException failure;
+
+        RecordingApplier(RuntimeException failure) {
+            this.failure = failure;
+        }
+
+        public synchronized void apply(String user, Collection<String> replace,
+                Collection<String> add, Collection<String> remove) {
+            applied.add(Arrays.asList(replace, add, remove));
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /** Applier failing updates which add bad grant, slow to apply. */
+    private static class CheckingApplier extends RecordingApplier {
+        int active;
+        int maxActive;
+
+        CheckingApplier() {
+            super(null);
+        }
+
+        public void apply(String user, Collection<String> replace, Collection<String> add,
+                Collection<String> remove) {
+            synchronized (this) {
+                applied.add(Arrays.asList(replace, add, remove));
+                maxActive = Math.max(maxActive, ++active);
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                active--;
+            }
+            if (add.contains("BAD")) {
+                throw new ConnectorException("failed " + add);
+            }
+        }
+    }
+
+    /** Submits update in new thread and stores failure of the update. */
+    private static class Submitter extends Thread {
+        final DB2UpdateCoalescer coalescer;
+        final Collection<String> replace;
+        final Collection<String> add;
+        final RecordingApplier applier;
+        volatile RuntimeException failure;
+
+        Submitter(DB2UpdateCoalescer coalescer, Collection<String> replace,
+                Collection<String> add, RecordingApplier applier) {
+            this.coalescer = coalescer;
+            this.replace = replace;
+            this.add = add;
+            this.applier = applier;
+        }
+
+        @Override
+        public void run() {
+            try {
+                coalescer.submit("john", replace, add, NONE, applier);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private static Submitter startFirst(DB2UpdateCoalescer coalescer,
+            Collection<String> replace, Collection<String> add, RecordingApplier applier)
+            throws InterruptedException {
+        Submitter first = new Submitter(coalescer, replace, add, applier);
+        first.start();
+        while (coalescer.size() == 0) {
+            Thread.sleep(10);
+        }
+        return first;
+    }
+
+    /** Test that updates submitted within window are applied once as net delta. */
+    @Test
+    public void testMergeUpdates() throws InterruptedException {
+        DB2UpdateCoalescer coalescer = new DB2UpdateCoalescer(500);
+        RecordingApplier first = new RecordingApplier(null);
+        RecordingApplier second = new RecordingApplier(null);
+        Submitter submitter =
+                startFirst(coalescer, null, Arrays.asList("SELECT ON TABLE S.T",
+                        "INSERT ON TABLE S.T"), first);
+        coalescer.submit("JOHN", null, NONE, Arrays.asList("insert on table s.t"), second);
+        submitter.join();
+        assertNull(submitter.failure);
+        assertEquals(0, second.applied.size());
+        assertEquals(1, first.applied.size());
+        assertNull(first.applied.get(0).get(0));
+        assertEquals(Arrays.asList("SELECT ON TABLE S.T"), first.applied.get(0).get(1));
+        assertEquals(Arrays.asList("insert on table s.t"), first.applied.get(0).get(2));
+        assertEquals(0, coalescer.size());
+    }
+
+    /** Test that updates merged after replace change the replacing grants. */
+    @Test
+    public void testMergeReplace() throws InterruptedException {
+        DB2UpdateCoalescer coalescer = new DB2UpdateCoalescer(500);
+        RecordingApplier first = new RecordingApplier(null);
+        Submitter submitter =
+                startFirst(coalescer, Arrays.asList("CONNECT ON DATABASE", "SELECT ON TABLE S.T"),
+                        NONE, first);
+        coalescer.submit("JOHN", null, Arrays.asList("DELETE ON TABLE S.T"), Arrays
+                .asList("SELECT ON TABLE S.T"), first);
+        submitter.join();
+        assertEquals(1, first.applied.size());
+        assertEquals(Arrays.asList("CONNECT ON DATABASE", "DELETE ON TABLE S.T"),
+                first.applied.get(0).get(0));
+        assertEquals(NONE, first.applied.get(0).get(1));
+        assertEquals(NONE, first.applied.get(0).get(2));
+    }
+
+    /** Test that shared coalescer is keyed by window and released. */
+    @Test
+    public void testSharedCoalescer() {
+        final int shared = DB2UpdateCoalescer.getSharedCount();
+        DB2UpdateCoalescer first = DB2UpdateCoalescer.acquire("test", 100);
+        DB2UpdateCoalescer same = DB2UpdateCoalescer.acquire("test", 100);
+        DB2UpdateCoalescer other = DB2UpdateCoalescer.acquire("test", 200);
+        assertSame(first, same);
+        assertNotSame(first, other);
+        assertEquals(shared + 2, DB2UpdateCoalescer.getSharedCount());
+        first.release();
+        assertEquals(shared + 2, DB2UpdateCoalescer.getSharedCount());
+        same.release();
+        other.release();
+        assertEquals(shared, DB2UpdateCoalescer.getSharedCount());
+    }
+
+    /** Test that failure of merged update is reported to all callers. */
+    @Test
+    public void testFailureIsReportedToAll() throws InterruptedException {
+        DB2UpdateCoalescer coalescer = new DB2UpdateCoalescer(500);
+        ConnectorException failure = new ConnectorException("failed");
+        RecordingApplier first = new RecordingApplier(failure);
+        Submitter submitter =
+                startFirst(coalescer, null, Arrays.asList("SELECT ON TABLE S.T"), first);
+        RuntimeException reported = null;
+        try {
+            coalescer.submit("JOHN", null, Arrays.asList("DELETE ON TABLE S.T"), NONE,
+                    new RecordingApplier(null));
+        } catch (RuntimeException e) {
+            reported = e;
+        }
+        submitter.join();
+        assertSame(failure, submitter.failure);
+        assertSame(failure, reported);
+    }
+
+    /** Test that caller gets failure of its own update only. */
+    @Test
+    public void testFailureIsReportedPerCaller() throws InterruptedException {
+        DB2UpdateCoalescer coalescer = new DB2UpdateCoalescer(500);
+        CheckingApplier applier = new CheckingApplier();
+        Submitter submitter = startFirst(coalescer, null, Arrays.asList("BAD"), applier);
+        coalescer.submit("JOHN", null, Arrays.asList("DELETE ON TABLE S.T"), NONE, applier);
+        submitter.join();
+        assertNotNull(submitter.failure);
+        // merged update and then each update alone
+        assertEquals(3, applier.applied.size());
+        assertEquals(Arrays.asList("BAD", "DELETE ON TABLE S.T"), applier.applied.get(0).get(1));
+        assertEquals(Arrays.asList("BAD"), applier.applied.get(1).get(1));
+        assertEquals(Arrays.asList("DELETE ON TABLE S.T"), applier.applied.get(2).get(1));
+    }
+
+    /** Test that next window of user is applied after previous one. */
+    @Test
+    public void testUpdatesOfUserAreSerialized() throws InterruptedException {
+        DB2UpdateCoalescer coalescer = new DB2UpdateCoalescer(100);
+        CheckingApplier applier = new CheckingApplier();
+        Submitter first =
+                startFirst(coalescer, null, Arrays.asList("SELECT ON TABLE S.T"), applier);
+        while (coalescer.applyingSize() == 0) {
+            Thread.sleep(10);
+        }
+        coalescer.submit("JOHN", null, NONE, Arrays.asList("SELECT ON TABLE S.T"), applier);
+        first.join();
+        assertNull(first.failure);
+        assertEquals(2, applier.applied.size());
+        assertEquals(1, applier.maxActive);
+        assertEquals(Arrays.asList("SELECT ON TABLE S.T"), applier.applied.get(0).get(1));
+        assertEquals(Arrays.asList("SELECT ON TABLE S.T"), applier.applied.get(1).get(2));
+        assertEquals(0, coalescer.applyingSize());
+    }
+}